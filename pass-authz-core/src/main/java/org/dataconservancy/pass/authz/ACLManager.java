@@ -18,25 +18,39 @@ package org.dataconservancy.pass.authz;
 
 import static java.lang.String.format;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.joining;
 import static org.apache.commons.io.IOUtils.toInputStream;
+import static org.dataconservancy.pass.authz.Digests.sha256Hex;
 import static org.dataconservancy.pass.client.util.ConfigUtil.getSystemProperty;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URI;
-import java.util.ArrayList;
+import java.time.Duration;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.fcrepo.client.FcrepoClient;
-import org.fcrepo.client.FcrepoClient.FcrepoClientBuilder;
 import org.fcrepo.client.FcrepoOperationFailedException;
 import org.fcrepo.client.FcrepoResponse;
 
@@ -47,27 +61,149 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Creates and updates ACLs for repository resources.
+ * <p>
+ * The ACL linked to each resource is remembered in a bounded, expiring cache shared by every manager created without
+ * a cache of its own, so that repeated grants on the same resource do not need to read the resource again, even
+ * when each grant uses a new manager. The cache capacity and entry lifetime (in seconds) are set by
+ * {@value #PROP_ACL_CACHE_SIZE} and {@value #PROP_ACL_CACHE_EXPIRY}. Like other named caches, it is called
+ * <code>acls</code>, and may be tuned over JMX. Entries are dropped whenever an operation on their resource fails.
+ * </p>
+ * <p>
+ * The same permissions may be granted on many resources at once with {@link #addPermissions(Collection)}. Resources
+ * are processed in parallel, up to {@value #PROP_ACL_BULK_CONCURRENCY} (default 8) at a time, sharing this manager's
+ * repository client and ACL cache.
+ * </p>
+ * <p>
+ * {@link #addPermissions(URI)} always appends new authorizations. {@link #setPermissions(URI)} instead reads the
+ * authorizations already in the ACL and only writes the grants that are missing, so repeating it is a no-op. It can
+ * optionally {@link Builder#revokeOthers() revoke} grants on the resource that were not requested.
+ * </p>
+ * <p>
+ * {@link #sharePermissions(URI)} links a resource to a shared ACL that grants exactly the requested permissions.
+ * There is one shared ACL for each distinct combination of read and write roles, named by a hash of that
+ * combination, so resources with the same permissions reuse the same ACL instead of each getting their own. Since
+ * a shared ACL applies to every resource linked to it, resources using one can only have their permissions changed
+ * by sharing again.
+ * </p>
+ * <p>
+ * Concurrent operations on the same resource take turns finding or creating its ACL, so only one ACL is ever
+ * created for it; the others find it in the cache. Operations on different resources are not blocked, apart from
+ * occasionally hashing to the same one of {@value #LOCK_STRIPES} locks.
+ * </p>
+ * <p>
+ * {@link Builder#performAsync()} does the same work as {@link Builder#perform()} without blocking the caller. Each
+ * step runs as a separate stage on an executor of {@value #PROP_ACL_ASYNC_THREADS} threads (default 16) shared by
+ * every manager in the JVM, or on one supplied by the caller, so threads are only occupied while a request to the
+ * repository is in flight. Idle threads of the shared executor exit after a minute.
+ * </p>
+ * <p>
+ * If {@value #PROP_ACL_COALESCE_WINDOW} is set to a number of milliseconds, grants added to the same resource within
+ * that window are merged and written together, and {@link Builder#perform()} returns once the merged grant has been
+ * written. Grants are merged across every manager in the JVM that uses the same repository client, so managers using
+ * the shared client merge grants with each other. Transactional and shared grants are not merged. Pending grants are
+ * written by {@link #flush()} and {@link #close()}, which write those of every manager using this manager's client,
+ * and when the JVM shuts down normally. They are only held in memory, so are lost if the JVM crashes or is killed
+ * before they are written; as the grant has not returned yet, its caller never sees it succeed. Merged grants are
+ * written on the shared async executor, one batch at a time for any given resource.
+ * </p>
+ *
  * @author apb@jhu.edu
  */
-public class ACLManager {
+public class ACLManager implements AutoCloseable {
 
     Logger LOG = LoggerFactory.getLogger(ACLManager.class);
 
+    public static final String PROP_ACL_CACHE_SIZE = "acl.cache.size";
+
+    public static final String PROP_ACL_CACHE_EXPIRY = "acl.cache.expiry";
+
+    public static final String PROP_ACL_TRANSACTIONS = "acl.transactions";
+
+    public static final String PROP_ACL_BULK_CONCURRENCY = "acl.bulk.concurrency";
+
+    public static final String PROP_ACL_ASYNC_THREADS = "acl.async.threads";
+
+    public static final String PROP_ACL_COALESCE_WINDOW = "acl.coalesce.window";
+
     private final FcrepoClient repo;
 
     private final URI acls;
 
-    static final Pattern aclPattern = Pattern.compile(
-            ".+?\\s+<http://www.w3.org/ns/auth/acl#accessControl>\\s+<(.+?)>.+?");
+    private final ExpiringLRUCache<URI, URI> aclCache;
+
+    private final AclReader reader;
+
+    /* Shared by every manager, and only created once first used */
+    private static class Async {
+
+        static final ThreadPoolExecutor EXECUTOR = executor();
+
+        private static ThreadPoolExecutor executor() {
+            final int threads = Integer.valueOf(getSystemProperty(PROP_ACL_ASYNC_THREADS, "16"));
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                        final Thread thread = new Thread(r, "acl-async");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
+    /* Shared by every manager, and only created once a grant is first coalesced */
+    private static class Coalescing {
+
+        static final GrantCoalescer COALESCER = new GrantCoalescer(Duration.ofMillis(coalesceWindow()),
+                Async.EXECUTOR);
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread(COALESCER::close, "acl-coalescer-shutdown"));
+        }
+    }
+
+    private final boolean coalesce = coalesceWindow() > 0;
+
+    private volatile boolean closed;
+
+    static final int LOCK_STRIPES = 64;
+
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /* Shared ACLs known to exist */
+    private final Set<URI> sharedAcls = ConcurrentHashMap.newKeySet();
+
+    private final boolean transactional = Boolean.valueOf(getSystemProperty(PROP_ACL_TRANSACTIONS, "false"));
 
     static final String TEMPLATE_ADD_ACL_TRIPLE =
             "INSERT {<> <http://www.w3.org/ns/auth/acl#accessControl> <%s>} WHERE {}";
 
+    static final String TEMPLATE_REPLACE_ACL_TRIPLE =
+            "DELETE {<> <http://www.w3.org/ns/auth/acl#accessControl> ?acl} " +
+                    "INSERT {<> <http://www.w3.org/ns/auth/acl#accessControl> <%s>} " +
+                    "WHERE {OPTIONAL {<> <http://www.w3.org/ns/auth/acl#accessControl> ?acl}}";
+
     static final String TEMPLATE_AUTHORIZATION =
             "@prefix acl: <http://www.w3.org/ns/auth/acl#> .\n\n" +
                     "<> a acl:Authorization;\n" +
                     "acl:accessTo <%s>;\n" +
-                    "acl:agent <%s> .\n";
+                    "acl:agent %s .\n";
+
+    /* Applies to every resource linked to the ACL */
+    static final String TEMPLATE_SHARED_AUTHORIZATION =
+            "@prefix acl: <http://www.w3.org/ns/auth/acl#> .\n\n" +
+                    "<> a acl:Authorization;\n" +
+                    "acl:accessToClass <http://fedora.info/definitions/v4/repository#Resource>;\n" +
+                    "acl:agent %s .\n";
+
+    static final String SHARED_ACL_PREFIX = "shared-";
 
     static final String READ_AUTH = "<> acl:mode acl:Read .\n";
 
@@ -75,48 +211,255 @@ public class ACLManager {
 
     public ACLManager() {
         repo = getFcrepoClient();
+        reader = new AclReader(repo);
         acls = getAclBase();
+        aclCache = getAclCache();
     }
 
     public ACLManager(FcrepoClient client) {
+        this(client, getAclCache());
+    }
+
+    public ACLManager(FcrepoClient client, ExpiringLRUCache<URI, URI> cache) {
         repo = client;
+        reader = new AclReader(repo);
         acls = getAclBase();
+        aclCache = cache;
     }
 
     private static URI getAclBase() {
         return URI.create(FedoraConfig.getBaseUrl() + getSystemProperty("acl.base", "acls"));
     }
 
+    private static ExpiringLRUCache<URI, URI> getAclCache() {
+        return ExpiringLRUCache.named("acls",
+                Integer.valueOf(getSystemProperty(PROP_ACL_CACHE_SIZE, "1000")),
+                Duration.ofSeconds(Long.valueOf(getSystemProperty(PROP_ACL_CACHE_EXPIRY, "600"))));
+    }
+
+    private static long coalesceWindow() {
+        return Long.valueOf(getSystemProperty(PROP_ACL_COALESCE_WINDOW, "0"));
+    }
+
+    /* Add a grant to the batch for its resource, among those of every manager using the same client */
+    private CompletableFuture<URI> submitCoalesced(Builder builder) {
+        if (closed) {
+            throw new IllegalStateException("No more grants are accepted, the manager has been closed");
+        }
+        return Coalescing.COALESCER.submit(repo, builder.resource, builder.read, builder.write, this::writeBatch);
+    }
+
+    private URI writeBatch(GrantCoalescer.Batch batch) {
+        final Builder builder = new Builder(batch.resource, ADD_AUTHORIZATION);
+        builder.read.addAll(batch.read);
+        builder.write.addAll(batch.write);
+        builder.coalesce = false;
+        return builder.perform();
+    }
+
+    /**
+     * Write any coalesced grants that are still waiting, made by any manager using this manager's client.
+     */
+    public void flush() {
+        if (coalesce) {
+            Coalescing.COALESCER.flushAll(repo);
+        }
+    }
+
+    /**
+     * Write any coalesced grants that are still waiting, made by any manager using this manager's client. Once closed,
+     * a manager that coalesces grants accepts no more of them.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        flush();
+    }
+
     public Builder addPermissions(URI resource) {
         return new Builder(resource, ADD_AUTHORIZATION);
     }
 
+    /**
+     * Grant the same permissions on many resources.
+     *
+     * @param resources The resources.
+     * @return Builder for the permissions to grant.
+     */
+    public BulkBuilder addPermissions(Collection<URI> resources) {
+        return new BulkBuilder(resources, ADD_AUTHORIZATION);
+    }
+
+    /**
+     * Make sure the given permissions are granted on a resource, writing only those that are not already present.
+     *
+     * @param resource The resource.
+     * @return Builder for the permissions.
+     */
+    public Builder setPermissions(URI resource) {
+        return new Builder(resource, SET_AUTHORIZATION);
+    }
+
+    /**
+     * Link a resource to the shared ACL granting exactly the given permissions, replacing any ACL it had before.
+     *
+     * @param resource The resource.
+     * @return Builder for the permissions.
+     */
+    public Builder sharePermissions(URI resource) {
+        final Builder builder = new Builder(resource, LINK_SHARED_ACL);
+        builder.shared = true;
+        return builder;
+    }
+
     FcrepoClient getFcrepoClient() {
-        return new FcrepoClientBuilder().credentials(FedoraConfig.getUserName(), FedoraConfig.getPassword()).build();
+        return SharedClients.fcrepoClient();
     }
 
     private FcrepoClient repo() {
         return repo;
     }
 
-    final BiConsumer<Builder, URI> ADD_AUTHORIZATION = (builder, acl) -> {
+    private AclReader reader() {
+        return reader;
+    }
 
-        for (final URI role : builder.allRoles()) {
-            final StringBuilder auth = aclAuth(builder.resource, role);
+    /*
+     * Roles are grouped by the modes they are granted, and each group is written as a single authorization listing
+     * every role as an agent. This takes at most three writes, no matter how many roles there are.
+     */
+    final BiConsumer<Builder, URI> ADD_AUTHORIZATION = (builder, acl) -> addAuthorizations(builder.tx.in(acl),
+            builder.tx.in(builder.resource), builder.read, builder.write);
+
+    /*
+     * Compares the requested grants with the authorizations already in the ACL, and only adds the difference.
+     * Authorizations that grant something unwanted are deleted when revoking; whatever else they granted is then
+     * missing, so it is added back.
+     */
+    final BiConsumer<Builder, URI> SET_AUTHORIZATION = (builder, acl) -> {
+
+        final Set<URI> missingRead = new HashSet<>(builder.read);
+        final Set<URI> missingWrite = new HashSet<>(builder.write);
+
+        final Collection<Authorization> existing = builder.aclCreated ? emptyList() : reader().read(acl,
+                builder.tx);
+
+        for (final Authorization auth : existing) {
+            if (!auth.accessTo.contains(builder.resource)) {
+                continue;
+            }
 
-            if (builder.read.contains(role)) {
-                auth.append(READ_AUTH);
+            if (builder.revoke && auth.grantsOtherThan(builder.read, builder.write)) {
+                if (auth.accessTo.size() == 1) {
+                    LOG.debug("Revoking authorization <{}>", auth.uri);
+                    deleteAuthorization(builder.tx.in(auth.uri));
+                    continue;
+                }
+                LOG.warn("Not revoking authorization <{}>, since it applies to other resources too", auth.uri);
             }
 
-            if (builder.write.contains(role)) {
-                auth.append(WRITE_AUTH);
+            if (auth.grantsRead()) {
+                missingRead.removeAll(auth.agents);
             }
+            if (auth.grantsWrite()) {
+                missingWrite.removeAll(auth.agents);
+            }
+        }
 
-            postAuthzBody(acl, auth.toString());
+        if (missingRead.isEmpty() && missingWrite.isEmpty()) {
+            LOG.debug("ACL <{}> already grants the requested permissions on <{}>", acl, builder.resource);
+            return;
         }
+
+        addAuthorizations(builder.tx.in(acl), builder.tx.in(builder.resource), missingRead, missingWrite);
     };
 
-    private static void onErrorThrow(FcrepoResponse response, String message, Object... params) throws IOException {
+    final BiConsumer<Builder, URI> LINK_SHARED_ACL = this::linkSharedAcl;
+
+    private void linkSharedAcl(Builder builder, URI acl) {
+        if (acl.equals(aclCache.get(builder.resource))) {
+            LOG.debug("<{}> is already linked to shared ACL <{}>", builder.resource, acl);
+            return;
+        }
+
+        LOG.debug("Linking <{}> to shared ACL <{}>", builder.resource, acl);
+        try (FcrepoResponse response = repo().patch(builder.tx.in(builder.resource))
+                .body(toInputStream(format(TEMPLATE_REPLACE_ACL_TRIPLE, builder.tx.in(acl)), UTF_8))
+                .perform()) {
+            onErrorThrow(response, "Error linking to acl <%s> from <%s>", acl, builder.resource);
+        } catch (FcrepoOperationFailedException | IOException e) {
+            throw new RuntimeException("Error conecting to the repository", e);
+        }
+    }
+
+    /**
+     * Determine the URI of the shared ACL for a set of permissions.
+     * <p>
+     * Roles are sorted, so the same permissions always hash to the same ACL regardless of order.
+     * </p>
+     *
+     * @param read Roles granted read.
+     * @param write Roles granted write.
+     * @return URI of the shared ACL.
+     */
+    URI sharedAclFor(Set<URI> read, Set<URI> write) {
+        final StringBuilder canonical = new StringBuilder("read");
+        for (final URI role : new TreeSet<>(read)) {
+            canonical.append('\n').append(role);
+        }
+        canonical.append("\nwrite");
+        for (final URI role : new TreeSet<>(write)) {
+            canonical.append('\n').append(role);
+        }
+
+        return URI.create(acls + "/" + SHARED_ACL_PREFIX + sha256Hex(canonical.toString()));
+    }
+
+    /* Lock guarding finding or creating the ACL of a resource */
+    ReentrantLock lockFor(URI resource) {
+        final int hash = resource.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    boolean isSharedAcl(URI acl) {
+        return acl.toString().startsWith(acls + "/" + SHARED_ACL_PREFIX);
+    }
+
+    private void addAuthorizations(URI acl, URI resource, Set<URI> read, Set<URI> write) {
+
+        final Set<URI> readWrite = new HashSet<>(read);
+        readWrite.retainAll(write);
+
+        final Set<URI> readOnly = new HashSet<>(read);
+        readOnly.removeAll(readWrite);
+
+        final Set<URI> writeOnly = new HashSet<>(write);
+        writeOnly.removeAll(readWrite);
+
+        addAuthorization(acl, resource, readWrite, true, true);
+        addAuthorization(acl, resource, readOnly, true, false);
+        addAuthorization(acl, resource, writeOnly, false, true);
+    }
+
+    private void addAuthorization(URI acl, URI resource, Collection<URI> roles, boolean read, boolean write) {
+        if (roles.isEmpty()) {
+            return;
+        }
+
+        final StringBuilder auth = aclAuth(resource, roles);
+
+        if (read) {
+            auth.append(READ_AUTH);
+        }
+
+        if (write) {
+            auth.append(WRITE_AUTH);
+        }
+
+        postAuthzBody(acl, auth.toString());
+    }
+
+    static void onErrorThrow(FcrepoResponse response, String message, Object... params) throws IOException {
         if (response.getStatusCode() > 299) {
             try (InputStream in = response.getBody()) {
                 throw new RuntimeException(
@@ -128,8 +471,10 @@ public class ACLManager {
 
     }
 
-    private static StringBuilder aclAuth(URI toResource, URI role) {
-        return new StringBuilder(format(TEMPLATE_AUTHORIZATION, toResource, role));
+    private static StringBuilder aclAuth(URI toResource, Collection<URI> roles) {
+        return new StringBuilder(format(TEMPLATE_AUTHORIZATION, toResource, roles.stream()
+                .map(role -> "<" + role + ">")
+                .collect(joining(", "))));
     }
 
     private void postAuthzBody(URI acl, String body) {
@@ -145,6 +490,14 @@ public class ACLManager {
         }
     }
 
+    private void deleteAuthorization(URI authorization) {
+        try (FcrepoResponse response = repo().delete(authorization).perform()) {
+            onErrorThrow(response, "Error deleting authorization <%s>", authorization);
+        } catch (FcrepoOperationFailedException | IOException e) {
+            throw new RuntimeException("Error conecting to the repository", e);
+        }
+    }
+
     public class Builder {
 
         final URI resource;
@@ -155,11 +508,44 @@ public class ACLManager {
 
         final BiConsumer<Builder, URI> action;
 
+        boolean useTransaction = transactional;
+
+        boolean revoke;
+
+        boolean shared;
+
+        boolean coalesce = ACLManager.this.coalesce;
+
+        /* True if the ACL was created by this builder, so it has no authorizations yet */
+        boolean aclCreated;
+
+        Transaction tx = Transaction.NONE;
+
         Builder(URI resource, BiConsumer<Builder, URI> aclAction) {
             this.resource = resource;
             this.action = aclAction;
         }
 
+        /**
+         * Perform all work in a single repository transaction.
+         *
+         * @return this builder.
+         */
+        public Builder inTransaction() {
+            useTransaction = true;
+            return this;
+        }
+
+        /**
+         * When setting permissions, remove any grants on the resource that were not requested.
+         *
+         * @return this builder.
+         */
+        public Builder revokeOthers() {
+            revoke = true;
+            return this;
+        }
+
         public Builder grantRead(Collection<URI> roles) {
             read.addAll(roles);
             return this;
@@ -176,16 +562,116 @@ public class ACLManager {
         }
 
         public URI perform() {
+            if (isCoalesced()) {
+                try {
+                    return submitCoalesced(this).join();
+                } catch (final CompletionException e) {
+                    throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                            : new RuntimeException("Error communicating with repository", e.getCause());
+                }
+            }
+
+            final ReentrantLock lock = lockFor(resource);
+            lock.lock();
             try {
-                final URI acl = findOrCreateACL();
+                tx = useTransaction ? Transaction.begin(repo, URI.create(FedoraConfig.getBaseUrl()))
+                        : Transaction.NONE;
+
+                final URI acl = findAcl();
+
+                // An ACL created in a transaction is invisible to others until commit, so keep the lock until then
+                if (!tx.isActive()) {
+                    lock.unlock();
+                }
+
                 action.accept(this, acl);
-                return acl;
+
+                tx.commit();
+                return done(acl);
 
             } catch (final Exception e) {
-                throw new RuntimeException("Error communicating with repository", e);
+                tx.rollback();
+                throw failed(e);
+            } finally {
+                tx = Transaction.NONE;
+                if (lock.isHeldByCurrentThread()) {
+                    lock.unlock();
+                }
             }
         }
 
+        /**
+         * Perform the work asynchronously, on the executor shared by all managers.
+         *
+         * @return Future ACL URI.
+         */
+        public CompletableFuture<URI> performAsync() {
+            return performAsync(Async.EXECUTOR);
+        }
+
+        /**
+         * Perform the work asynchronously.
+         * <p>
+         * Finding or creating the ACL and writing the authorizations are separate stages on the given executor.
+         * Within a transaction the whole operation is a single stage, since it must hold the resource's lock until
+         * commit.
+         * </p>
+         *
+         * @param executor Executor to run each stage on.
+         * @return Future ACL URI.
+         */
+        public CompletableFuture<URI> performAsync(Executor executor) {
+            if (isCoalesced()) {
+                return submitCoalesced(this);
+            }
+
+            if (useTransaction) {
+                return CompletableFuture.supplyAsync(this::perform, executor);
+            }
+
+            return CompletableFuture.supplyAsync(() -> {
+                final ReentrantLock lock = lockFor(resource);
+                lock.lock();
+                try {
+                    return findAcl();
+                } catch (final Exception e) {
+                    throw new CompletionException(e);
+                } finally {
+                    lock.unlock();
+                }
+            }, executor).thenApplyAsync(acl -> {
+                action.accept(this, acl);
+                return acl;
+            }, executor).handle((acl, e) -> {
+                if (e != null) {
+                    throw failed(e instanceof CompletionException ? e.getCause() : e);
+                }
+                return done(acl);
+            });
+        }
+
+        private boolean isCoalesced() {
+            return coalesce && action == ADD_AUTHORIZATION && !shared && !useTransaction;
+        }
+
+        private URI findAcl() throws FcrepoOperationFailedException, IOException {
+            return shared ? findOrCreateSharedAcl() : findOrCreateACL();
+        }
+
+        private URI done(URI acl) {
+            aclCache.put(resource, acl);
+            if (shared) {
+                sharedAcls.add(acl);
+            }
+            return acl;
+        }
+
+        private RuntimeException failed(Throwable e) {
+            // The cached ACL may no longer be valid, so look it up again next time.
+            aclCache.remove(resource);
+            return new RuntimeException("Error communicating with repository", e);
+        }
+
         Set<URI> allRoles() {
             final HashSet<URI> all = new HashSet<>();
             all.addAll(read);
@@ -195,52 +681,264 @@ public class ACLManager {
 
         URI findOrCreateACL() throws FcrepoOperationFailedException, IOException {
 
-            LOG.debug("Finding ACL for <{}>", resource);
-            try (FcrepoResponse response = repo.get(resource).accept("application/n-triples").perform()) {
+            final URI cached = aclCache.get(resource);
+            if (cached != null) {
+                LOG.debug("Using cached ACL <{}> for <{}>", cached, resource);
+                return notShared(cached);
+            }
 
-                onErrorThrow(response, "Error looking for ACL");
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.getBody(), UTF_8))) {
+            LOG.debug("Finding ACL for <{}>", resource);
+            URI acl = discoverAcl();
+
+            if (acl != null) {
+                LOG.debug("Found existing ACL <{}>", acl);
+                notShared(acl);
+            } else {
+                LOG.debug("No ACL, on <{}> creating one", resource);
+                acl = createAcl(resource);
+                aclCreated = true;
+            }
 
-                    final List<URI> acls = new ArrayList<>();
+            // Within a transaction, the ACL is only cached once committed
+            if (!tx.isActive()) {
+                aclCache.put(resource, acl);
+            }
+            return acl;
+        }
 
-                    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
-                        final Matcher aclFinder = aclPattern.matcher(line);
-                        if (aclFinder.matches()) {
-                            acls.add(URI.create(aclFinder.group(1)));
-                        }
-                    }
+        private URI notShared(URI acl) {
+            if (isSharedAcl(acl)) {
+                throw new IllegalStateException(format(
+                        "<%s> uses shared ACL <%s>, so its permissions can only be changed by sharing", resource,
+                        acl));
+            }
+            return acl;
+        }
 
-                    if (acls.size() == 1) {
-                        LOG.debug("Found existing ACL <{}>", acls.get(0));
-                        return acls.get(0);
-                    } else {
-                        LOG.debug("No ACL, on <{}> creating one", resource);
+        /*
+         * Find the shared ACL for this builder's permissions, creating it if it does not exist. Its authorizations
+         * are PUT at fixed URIs, so creating the same shared ACL concurrently produces the same result.
+         */
+        URI findOrCreateSharedAcl() throws FcrepoOperationFailedException, IOException {
+            final URI acl = sharedAclFor(read, write);
+            if (sharedAcls.contains(acl)) {
+                return acl;
+            }
 
-                        return createAcl(resource);
-                    }
+            try (FcrepoResponse response = repo.head(tx.in(acl)).perform()) {
+                if (response.getStatusCode() != 404) {
+                    onErrorThrow(response, "Error looking for shared acl <%s>", acl);
+                    LOG.debug("Found shared ACL <{}>", acl);
+                    return acl;
                 }
             }
+
+            LOG.debug("Creating shared ACL <{}>", acl);
+            try (FcrepoResponse response = repo.put(tx.in(acl))
+                    .body(this.getClass().getResourceAsStream("/acl.ttl"), "text/turtle")
+                    .perform()) {
+                onErrorThrow(response, "Error creating shared acl <%s>", acl);
+            }
+
+            final Set<URI> readWrite = new HashSet<>(read);
+            readWrite.retainAll(write);
+
+            final Set<URI> readOnly = new HashSet<>(read);
+            readOnly.removeAll(readWrite);
+
+            final Set<URI> writeOnly = new HashSet<>(write);
+            writeOnly.removeAll(readWrite);
+
+            putSharedAuthorization(acl, "read-write", readWrite, READ_AUTH + WRITE_AUTH);
+            putSharedAuthorization(acl, "read", readOnly, READ_AUTH);
+            putSharedAuthorization(acl, "write", writeOnly, WRITE_AUTH);
+
+            return acl;
+        }
+
+        private void putSharedAuthorization(URI acl, String name, Set<URI> roles, String modes)
+                throws FcrepoOperationFailedException, IOException {
+            if (roles.isEmpty()) {
+                return;
+            }
+
+            final String body = format(TEMPLATE_SHARED_AUTHORIZATION, roles.stream()
+                    .map(role -> "<" + role + ">")
+                    .collect(joining(", "))) + modes;
+
+            try (FcrepoResponse response = repo.put(tx.in(URI.create(acl + "/" + name)))
+                    .body(toInputStream(body, UTF_8), "text/turtle")
+                    .perform()) {
+                onErrorThrow(response, "Error adding authorization to shared acl <%s>", acl);
+            }
+        }
+
+        /* Find the ACL linked to the resource, or null if there is none */
+        URI discoverAcl() throws FcrepoOperationFailedException, IOException {
+            return reader.linkedAcl(resource, tx);
         }
 
         private URI createAcl(URI resource) throws IOException, FcrepoOperationFailedException {
             final URI acl;
-            try (FcrepoResponse response = repo.post(acls)
+            try (FcrepoResponse response = repo.post(tx.in(acls))
                     .body(this.getClass().getResourceAsStream("/acl.ttl"), "text/turtle")
                     .perform()) {
                 onErrorThrow(response, "Error creating acl");
-                acl = response.getLocation();
+                acl = tx.out(response.getLocation());
             }
 
             LOG.debug("Created ACL at <{}>", acl);
 
             LOG.debug("Linking ACL <{}> to <{}> via PATCH:\n{}", acl, resource, format(
-                    TEMPLATE_ADD_ACL_TRIPLE, acl));
+                    TEMPLATE_ADD_ACL_TRIPLE, tx.in(acl)));
 
-            try (FcrepoResponse response = repo.patch(resource)
-                    .body(toInputStream(format(TEMPLATE_ADD_ACL_TRIPLE, acl), UTF_8)).perform()) {
+            try (FcrepoResponse response = repo.patch(tx.in(resource))
+                    .body(toInputStream(format(TEMPLATE_ADD_ACL_TRIPLE, tx.in(acl)), UTF_8)).perform()) {
                 onErrorThrow(response, "Error linking to acl <%s> from <%s>", acl, resource);
                 return acl;
             }
         }
     }
+
+    /**
+     * Applies the same permissions to many resources, in parallel.
+     */
+    public class BulkBuilder {
+
+        final Set<URI> resources;
+
+        final Set<URI> read = new HashSet<>();
+
+        final Set<URI> write = new HashSet<>();
+
+        final BiConsumer<Builder, URI> action;
+
+        boolean useTransaction = transactional;
+
+        int concurrency = Integer.valueOf(getSystemProperty(PROP_ACL_BULK_CONCURRENCY, "8"));
+
+        BulkBuilder(Collection<URI> resources, BiConsumer<Builder, URI> aclAction) {
+            this.resources = new LinkedHashSet<>(resources);
+            this.action = aclAction;
+        }
+
+        public BulkBuilder grantRead(Collection<URI> roles) {
+            read.addAll(roles);
+            return this;
+        }
+
+        public BulkBuilder grantWrite(Collection<URI> roles) {
+            write.addAll(roles);
+            return this;
+        }
+
+        public BulkBuilder grantAppend(Collection<URI> roles) {
+            write.addAll(roles);
+            return this;
+        }
+
+        /**
+         * Perform the work for each resource in its own repository transaction.
+         *
+         * @return this builder.
+         */
+        public BulkBuilder inTransaction() {
+            useTransaction = true;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of resources to process at once.
+         *
+         * @param max Maximum concurrency, at least 1.
+         * @return this builder.
+         */
+        public BulkBuilder concurrency(int max) {
+            if (max < 1) {
+                throw new IllegalArgumentException("Concurrency must be at least 1, was " + max);
+            }
+            concurrency = max;
+            return this;
+        }
+
+        /**
+         * Apply the permissions to every resource.
+         * <p>
+         * A failure on one resource does not stop the others; it is recorded in the result.
+         * </p>
+         *
+         * @return Result for each resource.
+         */
+        public BulkResult perform() {
+            final BulkResult result = new BulkResult();
+            if (resources.isEmpty()) {
+                return result;
+            }
+
+            final long start = System.currentTimeMillis();
+            final ExecutorService workers = Executors.newFixedThreadPool(Math.min(concurrency, resources.size()));
+
+            try {
+                final Map<URI, Future<URI>> pending = new LinkedHashMap<>();
+                for (final URI resource : resources) {
+                    final Builder builder = new Builder(resource, action);
+                    builder.read.addAll(read);
+                    builder.write.addAll(write);
+                    builder.useTransaction = useTransaction;
+                    builder.coalesce = false;
+
+                    pending.put(resource, workers.submit(builder::perform));
+                }
+
+                for (final Map.Entry<URI, Future<URI>> task : pending.entrySet()) {
+                    try {
+                        result.acls.put(task.getKey(), task.getValue().get());
+                    } catch (final ExecutionException e) {
+                        LOG.warn("Could not apply permissions to <{}>", task.getKey(), e.getCause());
+                        result.failures.put(task.getKey(), e.getCause());
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while applying permissions", e);
+            } finally {
+                workers.shutdownNow();
+            }
+
+            LOG.info("Applied permissions to {} of {} resources in {} ms", result.acls.size(), resources.size(),
+                    System.currentTimeMillis() - start);
+            return result;
+        }
+    }
+
+    /**
+     * Outcome of applying permissions to many resources.
+     */
+    public static class BulkResult {
+
+        final Map<URI, URI> acls = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        final Map<URI, Throwable> failures = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        /**
+         * @return Map of each successfully updated resource to its ACL.
+         */
+        public Map<URI, URI> getAcls() {
+            return Collections.unmodifiableMap(acls);
+        }
+
+        /**
+         * @return Map of each resource that could not be updated to the cause.
+         */
+        public Map<URI, Throwable> getFailures() {
+            return Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * @return true if every resource was updated.
+         */
+        public boolean isSuccess() {
+            return failures.isEmpty();
+        }
+    }
 }
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static java.util.Optional.ofNullable;
+import static org.dataconservancy.pass.authz.ConfigUtil.getValue;
+import static org.dataconservancy.pass.authz.ConfigUtil.intValue;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a {@link WebAcIndex} up to date as ACLs in the repository change.
+ * <p>
+ * Each event on an ACL, or on an authorization within one, causes that whole ACL to be read again and replaced in
+ * the index, so the index always holds the ACL's current state regardless of how many events were missed, repeated,
+ * or delivered out of order. Creating or updating a resource outside the ACL container reads the ACL it is linked
+ * to into the index, and deleting one forgets its link.
+ * </p>
+ * <p>
+ * Every {@value #PROP_RECONCILE_INTERVAL} seconds (default 300, 0 to disable) the index is reconciled with the
+ * repository: each ACL is read if its entity tag has changed since it was last read, and replaced in the index only if
+ * the checksum of its authorizations has changed. ACLs no longer in the repository are removed. Then the link of each
+ * resource named in, or linked to, a replaced or removed ACL is read again. Reads are made by at most
+ * {@value #PROP_RECONCILE_THREADS} threads (default 4). Events and reconciliation are processed one at a time, in
+ * order.
+ * </p>
+ */
+public class AclIndexer implements AutoCloseable {
+
+    static final Logger LOG = LoggerFactory.getLogger(AclIndexer.class);
+
+    public static final String PROP_RECONCILE_INTERVAL = "authz.index.reconcile.interval";
+
+    public static final String PROP_RECONCILE_THREADS = "authz.index.reconcile.threads";
+
+    private final WebAcIndex index;
+
+    private final AclReader reader;
+
+    private final URI aclContainer;
+
+    private final String aclPrefix;
+
+    private final RepositoryEventSource events;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "acl-indexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ExecutorService readers = Executors.newFixedThreadPool(
+            intValue(PROP_RECONCILE_THREADS, 4), r -> {
+                final Thread thread = new Thread(r, "acl-reconciler");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /* ACL -> entity tag when it was last read. Only used while holding this indexer's lock */
+    private final Map<URI, String> etags = new HashMap<>();
+
+    /**
+     * @param index The index to maintain.
+     * @param reader Reads ACLs from the repository.
+     * @param aclContainer Container of ACLs, e.g. the {@link ACLManager} ACL base.
+     * @param events Source of repository events.
+     */
+    public AclIndexer(WebAcIndex index, AclReader reader, URI aclContainer, RepositoryEventSource events) {
+        this.index = index;
+        this.reader = reader;
+        this.aclContainer = aclContainer;
+        this.aclPrefix = aclContainer.toString().replaceFirst("/$", "") + "/";
+        this.events = events;
+    }
+
+    /**
+     * Start processing events, and reconciling periodically.
+     */
+    public void start() {
+        events.subscribe(event -> executor.execute(() -> handle(event)));
+
+        final long interval = ofNullable(getValue(PROP_RECONCILE_INTERVAL)).map(Long::valueOf).orElse(300L);
+        if (interval > 0) {
+            executor.scheduleWithFixedDelay(() -> {
+                try {
+                    reconcile();
+                } catch (final Exception e) {
+                    LOG.warn("Could not reconcile ACL index", e);
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Apply a repository event to the index.
+     *
+     * @param event The event.
+     */
+    public synchronized void handle(RepositoryEvent event) {
+        final URI resource = event.getResource();
+        final String uri = resource.toString().replaceFirst("#.*", "");
+
+        try {
+            if (uri.startsWith(aclPrefix)) {
+                final URI acl = knownAcl(uri);
+                if (acl != null) {
+                    update(acl);
+                } else if (event.getType() != RepositoryEvent.Type.DELETED) {
+                    // Not within any ACL we know, so a new one.
+                    update(URI.create(uri));
+                }
+            } else if (event.getType() == RepositoryEvent.Type.DELETED) {
+                index.forget(URI.create(uri));
+            } else {
+                index.link(URI.create(uri), reader.linkedAcl(URI.create(uri)));
+            }
+        } catch (final Exception e) {
+            LOG.warn("Could not index {}, it will be corrected when reconciling", event, e);
+        }
+    }
+
+    /**
+     * Compare every ACL in the repository with the index, and correct any differences.
+     *
+     * @return Number of ACLs added, replaced, or removed, and links changed.
+     */
+    public synchronized int reconcile() {
+        final long start = System.currentTimeMillis();
+        final Set<URI> stale = index.acls();
+        final Set<URI> relink = new HashSet<>();
+        int changes = 0;
+
+        final Map<URI, Future<AclReader.Read>> reads = new LinkedHashMap<>();
+        for (final URI acl : reader.children(aclContainer)) {
+            stale.remove(acl);
+            final String etag = etags.get(acl);
+            reads.put(acl, readers.submit(() -> reader.readIfChanged(acl, etag)));
+        }
+
+        for (final Map.Entry<URI, Future<AclReader.Read>> read : reads.entrySet()) {
+            final URI acl = read.getKey();
+            final AclReader.Read result = await(read.getValue(), "Could not read ACL <{}>", acl);
+            if (result != null) {
+                final Set<URI> resources = index.resourcesOf(acl);
+                if (update(acl, result)) {
+                    relink.addAll(resources);
+                    relink.addAll(index.resourcesOf(acl));
+                    changes++;
+                }
+            }
+        }
+
+        for (final URI acl : stale) {
+            relink.addAll(index.resourcesOf(acl));
+            index.removeAcl(acl);
+            etags.remove(acl);
+            changes++;
+        }
+
+        final Map<URI, Future<URI>> links = new LinkedHashMap<>();
+        for (final URI resource : relink) {
+            links.put(resource, readers.submit(() -> reader.linkedAcl(resource)));
+        }
+
+        for (final Map.Entry<URI, Future<URI>> link : links.entrySet()) {
+            final URI resource = link.getKey();
+            try {
+                final URI acl = link.getValue().get();
+                if (!index.isLinked(resource) || !Objects.equals(acl, index.linkedAcl(resource))) {
+                    index.link(resource, acl);
+                    changes++;
+                }
+            } catch (final ExecutionException e) {
+                LOG.debug("Could not read the ACL linked to {}", resource, e.getCause());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while reconciling", e);
+            }
+        }
+
+        LOG.info("Reconciled ACL index in {} ms, {} ACLs or links changed", System.currentTimeMillis() - start, changes);
+        return changes;
+    }
+
+    @Override
+    public void close() {
+        events.close();
+        executor.shutdownNow();
+        readers.shutdownNow();
+    }
+
+    /* Wait for a read, logging and returning null if it failed */
+    private static <T> T await(Future<T> read, String message, URI uri) {
+        try {
+            return read.get();
+        } catch (final ExecutionException e) {
+            LOG.warn(message, uri, e.getCause());
+            return null;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reconciling", e);
+        }
+    }
+
+    /* The indexed ACL that is, or contains, the given resource */
+    private URI knownAcl(String uri) {
+        for (String candidate = uri; candidate.length() > aclPrefix.length(); candidate = candidate.substring(0,
+                candidate.lastIndexOf('/'))) {
+            final URI acl = URI.create(candidate);
+            if (index.checksum(acl) != null) {
+                return acl;
+            }
+        }
+        return null;
+    }
+
+    /* Read an ACL into the index, returning true if the index changed */
+    private boolean update(URI acl) {
+        return update(acl, reader.readIfChanged(acl, null));
+    }
+
+    /* Put an ACL as read into the index, returning true if the index changed */
+    private boolean update(URI acl, AclReader.Read read) {
+        final Collection<Authorization> authorizations = read.authorizations;
+
+        if (authorizations == null) {
+            etags.remove(acl);
+            if (index.checksum(acl) == null) {
+                return false;
+            }
+            LOG.debug("Removing ACL <{}> from index", acl);
+            index.removeAcl(acl);
+            return true;
+        }
+
+        etags.put(acl, read.etag);
+        if (WebAcIndex.checksum(authorizations).equals(index.checksum(acl))) {
+            return false;
+        }
+
+        LOG.debug("Updating ACL <{}> in index", acl);
+        index.putAcl(acl, authorizations);
+        return true;
+    }
+}
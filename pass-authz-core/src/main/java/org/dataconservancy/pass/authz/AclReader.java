@@ -0,0 +1,290 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyList;
+import static org.dataconservancy.pass.authz.ACLManager.onErrorThrow;
+import static org.dataconservancy.pass.authz.Authorization.ACL_NS;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.fcrepo.client.FcrepoClient;
+import org.fcrepo.client.FcrepoOperationFailedException;
+import org.fcrepo.client.FcrepoResponse;
+import org.fcrepo.client.GetBuilder;
+
+/**
+ * Reads ACLs, and the links to them, from the repository.
+ * <p>
+ * Each read is a single streamed request; see {@link NTriplesReader}.
+ * </p>
+ */
+public class AclReader {
+
+    static final String ACCESS_CONTROL = ACL_NS + "accessControl";
+
+    static final String ACCESS_TO = ACL_NS + "accessTo";
+
+    static final String ACCESS_TO_CLASS = ACL_NS + "accessToClass";
+
+    static final String AGENT = ACL_NS + "agent";
+
+    static final String MODE = ACL_NS + "mode";
+
+    static final String LDP_CONTAINS = "http://www.w3.org/ns/ldp#contains";
+
+    static final URI EMBED_RESOURCES = URI.create("http://fedora.info/definitions/v4/repository#EmbedResources");
+
+    private final FcrepoClient repo;
+
+    public AclReader(FcrepoClient repo) {
+        this.repo = repo;
+    }
+
+    /**
+     * Read every authorization in an ACL.
+     *
+     * @param acl The ACL.
+     * @return The authorizations.
+     */
+    public Collection<Authorization> read(URI acl) {
+        return read(acl, Transaction.NONE);
+    }
+
+    /**
+     * Read every authorization in an ACL, unless it is unchanged since it was last read.
+     * <p>
+     * The read is conditional on the entity tag of the last read, so an unchanged ACL costs a request but no body.
+     * Authorizations are added to and removed from an ACL as its children, so doing either changes the ACL's tag.
+     * </p>
+     *
+     * @param acl The ACL.
+     * @param etag Entity tag of the last read of the ACL, or null to read it regardless.
+     * @return The ACL, or null if it is unchanged.
+     */
+    public Read readIfChanged(URI acl, String etag) {
+        return read(acl, Transaction.NONE, true, etag);
+    }
+
+    /* Read within a transaction, using URIs as they are known outside of it */
+    Collection<Authorization> read(URI acl, Transaction tx) {
+        return read(acl, tx, false, null).authorizations;
+    }
+
+    private Read read(URI acl, Transaction tx, boolean mayNotExist, String etag) {
+        final Map<String, Authorization> authorizations = new LinkedHashMap<>();
+
+        GetBuilder get = repo.get(tx.in(acl))
+                .accept("application/n-triples")
+                .preferRepresentation(Arrays.asList(EMBED_RESOURCES), emptyList());
+        if (etag != null) {
+            get = get.ifNoneMatch(etag);
+        }
+
+        try (FcrepoResponse response = get.perform()) {
+            if (etag != null && response.getStatusCode() == 304) {
+                return null;
+            }
+            if (mayNotExist && (response.getStatusCode() == 404 || response.getStatusCode() == 410)) {
+                return new Read(null, null);
+            }
+            onErrorThrow(response, "Error reading acl <%s>", acl);
+
+            try (InputStream body = response.getBody()) {
+                final NTriplesReader triples = new NTriplesReader(new InputStreamReader(body, UTF_8));
+                while (triples.next()) {
+                    if (triples.objectIsLiteral() || triples.subject().startsWith("_:")) {
+                        continue;
+                    }
+
+                    final Set<URI> values;
+                    if (triples.predicateIs(ACCESS_TO)) {
+                        values = authorization(authorizations, triples.subject(), tx).accessTo;
+                    } else if (triples.predicateIs(ACCESS_TO_CLASS)) {
+                        values = authorization(authorizations, triples.subject(), tx).accessToClass;
+                    } else if (triples.predicateIs(AGENT)) {
+                        values = authorization(authorizations, triples.subject(), tx).agents;
+                    } else if (triples.predicateIs(MODE)) {
+                        values = authorization(authorizations, triples.subject(), tx).modes;
+                    } else {
+                        continue;
+                    }
+                    values.add(tx.out(URI.create(triples.object())));
+                }
+            }
+
+            return new Read(authorizations.values(), response.getHeaderValue("ETag"));
+        } catch (FcrepoOperationFailedException | IOException e) {
+            throw new RuntimeException("Error conecting to the repository", e);
+        }
+    }
+
+    /**
+     * Find the ACL linked to a resource.
+     *
+     * @param resource The resource.
+     * @return The ACL, or null if there is none.
+     */
+    public URI linkedAcl(URI resource) {
+        try {
+            return linkedAcl(resource, Transaction.NONE);
+        } catch (FcrepoOperationFailedException | IOException e) {
+            throw new RuntimeException("Error conecting to the repository", e);
+        }
+    }
+
+    URI linkedAcl(URI resource, Transaction tx) throws FcrepoOperationFailedException, IOException {
+        try (FcrepoResponse response = repo.get(tx.in(resource))
+                .accept("application/n-triples")
+                .preferMinimal()
+                .perform()) {
+
+            onErrorThrow(response, "Error looking for ACL");
+
+            final List<URI> linked = response.getLinkHeaders("acl");
+            if (linked != null && !linked.isEmpty()) {
+                return tx.out(linked.get(0));
+            }
+
+            try (InputStream body = response.getBody()) {
+                final NTriplesReader triples = new NTriplesReader(new InputStreamReader(body, UTF_8));
+                while (triples.next()) {
+                    if (triples.predicateIs(ACCESS_CONTROL) && !triples.objectIsLiteral()) {
+                        return tx.out(URI.create(triples.object()));
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the ACL linked to a resource, and its children, with a single request.
+     *
+     * @param resource The resource.
+     * @return The resource's ACL and children.
+     */
+    public Node node(URI resource) {
+        final List<URI> children = new ArrayList<>();
+
+        try (FcrepoResponse response = repo.get(resource)
+                .accept("application/n-triples")
+                .perform()) {
+            onErrorThrow(response, "Error reading <%s>", resource);
+
+            final List<URI> linked = response.getLinkHeaders("acl");
+            URI acl = linked != null && !linked.isEmpty() ? linked.get(0) : null;
+
+            try (InputStream body = response.getBody()) {
+                final NTriplesReader triples = new NTriplesReader(new InputStreamReader(body, UTF_8));
+                while (triples.next()) {
+                    if (triples.objectIsLiteral()) {
+                        continue;
+                    }
+                    if (triples.predicateIs(LDP_CONTAINS)) {
+                        children.add(URI.create(triples.object()));
+                    } else if (acl == null && triples.predicateIs(ACCESS_CONTROL)) {
+                        acl = URI.create(triples.object());
+                    }
+                }
+            }
+
+            return new Node(acl, children);
+        } catch (FcrepoOperationFailedException | IOException e) {
+            throw new RuntimeException("Error conecting to the repository", e);
+        }
+    }
+
+    /**
+     * List the children of a container.
+     *
+     * @param container The container.
+     * @return URIs of its children.
+     */
+    public List<URI> children(URI container) {
+        final List<URI> children = new ArrayList<>();
+
+        try (FcrepoResponse response = repo.get(container)
+                .accept("application/n-triples")
+                .perform()) {
+            onErrorThrow(response, "Error listing children of <%s>", container);
+
+            try (InputStream body = response.getBody()) {
+                final NTriplesReader triples = new NTriplesReader(new InputStreamReader(body, UTF_8));
+                while (triples.next()) {
+                    if (triples.predicateIs(LDP_CONTAINS) && !triples.objectIsLiteral()) {
+                        children.add(URI.create(triples.object()));
+                    }
+                }
+            }
+        } catch (FcrepoOperationFailedException | IOException e) {
+            throw new RuntimeException("Error conecting to the repository", e);
+        }
+
+        return children;
+    }
+
+    /**
+     * The authorizations in an ACL, as read at one time.
+     */
+    public static class Read {
+
+        /** The authorizations, or null if the ACL does not exist */
+        public final Collection<Authorization> authorizations;
+
+        /** Entity tag of the ACL as read, or null if there was none */
+        public final String etag;
+
+        Read(Collection<Authorization> authorizations, String etag) {
+            this.authorizations = authorizations;
+            this.etag = etag;
+        }
+    }
+
+    /**
+     * A resource's link to an ACL, and its children.
+     */
+    public static class Node {
+
+        /** The linked ACL, or null if there is none */
+        public final URI acl;
+
+        /** URIs of the resource's children */
+        public final List<URI> children;
+
+        public Node(URI acl, List<URI> children) {
+            this.acl = acl;
+            this.children = children;
+        }
+    }
+
+    private static Authorization authorization(Map<String, Authorization> authorizations, String subject,
+            Transaction tx) {
+        return authorizations.computeIfAbsent(subject, s -> new Authorization(tx.out(URI.create(s))));
+    }
+}
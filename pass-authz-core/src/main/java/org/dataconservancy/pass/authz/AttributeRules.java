@@ -0,0 +1,645 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static java.util.Collections.unmodifiableSet;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.EPPN_HEADER;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.SCOPED_AFFILIATION_HEADER;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.UNSCOPED_AFFILIATION_HEADER;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A compiled set of rules matched against shib attributes.
+ * <p>
+ * A rule spec is a comma-separated list of alternatives. Each alternative is one or more conditions joined by
+ * <code>&amp;</code>, all of which must match. Conditions are of the form <code>type:value</code>:
+ * </p>
+ * <ul>
+ * <li><code>affiliation:FACULTY</code> - an unscoped affiliation</li>
+ * <li><code>scoped:faculty@jhu.edu</code> - a scoped affiliation. Either side may be <code>*</code>, e.g.
+ * <code>scoped:*@jhu.edu</code> or <code>scoped:faculty@*</code></li>
+ * <li><code>domain:jhu.edu</code> - a domain of the eppn or of any scoped affiliation. A leading dot (e.g.
+ * <code>domain:.jhu.edu</code>) matches any subdomain</li>
+ * <li><code>attr:Name=value</code> - any value of an arbitrary attribute. The value may start and/or end with
+ * <code>*</code> to match a suffix, prefix, or substring; <code>attr:Name=*</code> matches any value</li>
+ * </ul>
+ * <p>
+ * All comparisons are case-insensitive, and multi-valued attributes are separated by <code>;</code>. Rules are
+ * compiled once; single-condition alternatives of the same type are merged into case-folded hash lookups, and
+ * evaluation scans attribute values in place without allocating. The attributes a set of rules reads are known once
+ * compiled, so they can be resolved once per user, however many rules read them.
+ * </p>
+ */
+public final class AttributeRules {
+
+    static final Logger LOG = LoggerFactory.getLogger(AttributeRules.class);
+
+    /**
+     * Supplies raw attribute values by name, or null if absent.
+     */
+    @FunctionalInterface
+    public interface Source {
+
+        String get(String name);
+    }
+
+    static final AttributeRules NONE = new AttributeRules(new Condition[0][]);
+
+    private final Condition[][] alternatives;
+
+    private final Set<String> attributes = new LinkedHashSet<>();
+
+    private AttributeRules(Condition[][] alternatives) {
+        this.alternatives = alternatives;
+        for (final Condition[] all : alternatives) {
+            for (final Condition c : all) {
+                c.addAttributes(attributes);
+            }
+        }
+    }
+
+    /**
+     * Compile a rule spec.
+     *
+     * @param spec The rule spec, may be null or blank to match nothing.
+     * @return Compiled rules.
+     * @throws IllegalArgumentException if the spec is malformed.
+     */
+    public static AttributeRules compile(String spec) {
+        if (spec == null || spec.trim().isEmpty()) {
+            return NONE;
+        }
+
+        final Conditions single = new Conditions();
+        final List<Condition[]> compound = new ArrayList<>();
+
+        for (final String alternative : spec.split(",")) {
+            if (alternative.trim().isEmpty()) {
+                continue;
+            }
+
+            final String[] parts = alternative.split("&");
+            if (parts.length == 1) {
+                single.add(parts[0]);
+            } else {
+                final List<Condition> all = new ArrayList<>();
+                for (final String part : parts) {
+                    final Conditions c = new Conditions();
+                    c.add(part);
+                    all.addAll(c.compile());
+                }
+                compound.add(all.toArray(new Condition[0]));
+            }
+        }
+
+        final List<Condition[]> compiled = new ArrayList<>();
+        for (final Condition c : single.compile()) {
+            compiled.add(new Condition[] { c });
+        }
+        compiled.addAll(compound);
+
+        final AttributeRules rules = new AttributeRules(compiled.toArray(new Condition[0][]));
+        LOG.debug("Compiled {} alternatives from '{}', reading attributes {}", compiled.size(), spec,
+                rules.attributes);
+        return rules;
+    }
+
+    /**
+     * Determine if the given attributes match any alternative.
+     *
+     * @param attrs Attribute values
+     * @return true if matched
+     */
+    public boolean matches(Source attrs) {
+        for (final Condition[] all : alternatives) {
+            if (matchesAll(all, attrs)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the names of the attributes these rules read.
+     *
+     * @return Attribute names.
+     */
+    public Set<String> getAttributes() {
+        return unmodifiableSet(attributes);
+    }
+
+    /**
+     * Determine if there are no rules at all.
+     *
+     * @return true if these rules never match.
+     */
+    public boolean isEmpty() {
+        return alternatives.length == 0;
+    }
+
+    private static boolean matchesAll(Condition[] all, Source attrs) {
+        for (final Condition c : all) {
+            if (!c.matches(attrs)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Accumulates conditions by type, so that values of the same type share a single lookup */
+    private static class Conditions {
+
+        final AffiliationCondition affiliations = new AffiliationCondition();
+
+        final ScopedCondition scoped = new ScopedCondition();
+
+        final DomainCondition domains = new DomainCondition();
+
+        final Map<String, AttributeCondition> attrs = new LinkedHashMap<>();
+
+        void add(String condition) {
+            final String c = condition.trim();
+            final int colon = c.indexOf(':');
+            if (colon < 1 || colon == c.length() - 1) {
+                throw new IllegalArgumentException("Malformed rule condition '" + c + "', expecting type:value");
+            }
+
+            final String type = c.substring(0, colon).trim().toLowerCase();
+            final String value = c.substring(colon + 1).trim();
+
+            switch (type) {
+            case "affiliation":
+                affiliations.values.add(value);
+                break;
+            case "scoped":
+                scoped.add(value);
+                break;
+            case "domain":
+                domains.add(value);
+                break;
+            case "attr":
+                final int eq = value.indexOf('=');
+                if (eq < 1) {
+                    throw new IllegalArgumentException("Malformed attribute rule '" + c +
+                            "', expecting attr:Name=value");
+                }
+                attrs.computeIfAbsent(value.substring(0, eq).trim(), AttributeCondition::new)
+                        .add(value.substring(eq + 1).trim());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown rule type '" + type + "' in '" + c + "'");
+            }
+        }
+
+        List<Condition> compile() {
+            final List<Condition> compiled = new ArrayList<>();
+            for (final Condition c : new Condition[] { affiliations, scoped, domains }) {
+                if (!c.isEmpty()) {
+                    compiled.add(c.compile());
+                }
+            }
+            for (final Condition c : attrs.values()) {
+                compiled.add(c.compile());
+            }
+            return compiled;
+        }
+    }
+
+    private interface Condition {
+
+        boolean matches(Source attrs);
+
+        boolean isEmpty();
+
+        /* Add the names of the attributes read by this condition */
+        void addAttributes(Set<String> names);
+
+        /* Freeze collected values into their lookup structures */
+        Condition compile();
+    }
+
+    /* Unscoped affiliations, e.g. FACULTY */
+    private static class AffiliationCondition implements Condition {
+
+        final Set<String> values = new LinkedHashSet<>();
+
+        CaseFoldedSet lookup;
+
+        @Override
+        public boolean matches(Source attrs) {
+            final String value = attrs.get(UNSCOPED_AFFILIATION_HEADER);
+            if (value == null) {
+                return false;
+            }
+
+            for (int start = 0, end; start <= value.length(); start = end + 1) {
+                end = tokenEnd(value, start);
+                if (lookup.contains(value, start, end)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return values.isEmpty();
+        }
+
+        @Override
+        public void addAttributes(Set<String> names) {
+            names.add(UNSCOPED_AFFILIATION_HEADER);
+        }
+
+        @Override
+        public Condition compile() {
+            lookup = new CaseFoldedSet(values);
+            return this;
+        }
+    }
+
+    /* Scoped affiliations, e.g. faculty@jhu.edu, *@jhu.edu, or faculty@* */
+    private static class ScopedCondition implements Condition {
+
+        final Set<String> exact = new LinkedHashSet<>();
+
+        final Set<String> anyAffiliation = new LinkedHashSet<>();
+
+        final Set<String> anyDomain = new LinkedHashSet<>();
+
+        CaseFoldedSet exactLookup;
+
+        CaseFoldedSet anyAffiliationLookup;
+
+        CaseFoldedSet anyDomainLookup;
+
+        boolean any;
+
+        void add(String value) {
+            final int at = value.indexOf('@');
+            if (at < 1 || at == value.length() - 1) {
+                throw new IllegalArgumentException("Malformed scoped affiliation '" + value +
+                        "', expecting affiliation@domain");
+            }
+
+            final String affiliation = value.substring(0, at);
+            final String domain = value.substring(at + 1);
+
+            if ("*".equals(affiliation) && "*".equals(domain)) {
+                any = true;
+            } else if ("*".equals(affiliation)) {
+                anyAffiliation.add(domain);
+            } else if ("*".equals(domain)) {
+                anyDomain.add(affiliation);
+            } else {
+                exact.add(value);
+            }
+        }
+
+        @Override
+        public boolean matches(Source attrs) {
+            final String value = attrs.get(SCOPED_AFFILIATION_HEADER);
+            if (value == null) {
+                return false;
+            }
+
+            if (any) {
+                return value.indexOf('@') >= 0;
+            }
+
+            for (int start = 0, end; start <= value.length(); start = end + 1) {
+                end = tokenEnd(value, start);
+                final int at = indexOf(value, '@', start, end);
+                if (at < 0) {
+                    continue;
+                }
+
+                if (exactLookup.contains(value, start, end) ||
+                        anyAffiliationLookup.contains(value, at + 1, end) ||
+                        anyDomainLookup.contains(value, start, at)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return !any && exact.isEmpty() && anyAffiliation.isEmpty() && anyDomain.isEmpty();
+        }
+
+        @Override
+        public void addAttributes(Set<String> names) {
+            names.add(SCOPED_AFFILIATION_HEADER);
+        }
+
+        @Override
+        public Condition compile() {
+            exactLookup = new CaseFoldedSet(exact);
+            anyAffiliationLookup = new CaseFoldedSet(anyAffiliation);
+            anyDomainLookup = new CaseFoldedSet(anyDomain);
+            return this;
+        }
+    }
+
+    /* Domains of the eppn or scoped affiliations, e.g. jhu.edu or .jhu.edu */
+    private static class DomainCondition implements Condition {
+
+        final Set<String> exact = new LinkedHashSet<>();
+
+        final Set<String> suffixes = new LinkedHashSet<>();
+
+        CaseFoldedSet exactLookup;
+
+        CaseFoldedSet suffixLookup;
+
+        void add(String value) {
+            if (value.startsWith(".")) {
+                suffixes.add(value);
+            } else {
+                exact.add(value);
+            }
+        }
+
+        @Override
+        public boolean matches(Source attrs) {
+            final String eppn = attrs.get(EPPN_HEADER);
+            if (eppn != null) {
+                final int at = eppn.indexOf('@');
+                if (at >= 0 && matchesDomain(eppn, at + 1, eppn.length())) {
+                    return true;
+                }
+            }
+
+            final String scoped = attrs.get(SCOPED_AFFILIATION_HEADER);
+            if (scoped != null) {
+                for (int start = 0, end; start <= scoped.length(); start = end + 1) {
+                    end = tokenEnd(scoped, start);
+                    final int at = indexOf(scoped, '@', start, end);
+                    if (at >= 0 && matchesDomain(scoped, at + 1, end)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean matchesDomain(String value, int start, int end) {
+            if (exactLookup.contains(value, start, end)) {
+                return true;
+            }
+
+            for (int dot = indexOf(value, '.', start, end); dot >= 0; dot = indexOf(value, '.', dot + 1, end)) {
+                if (suffixLookup.contains(value, dot, end)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return exact.isEmpty() && suffixes.isEmpty();
+        }
+
+        @Override
+        public void addAttributes(Set<String> names) {
+            names.add(EPPN_HEADER);
+            names.add(SCOPED_AFFILIATION_HEADER);
+        }
+
+        @Override
+        public Condition compile() {
+            exactLookup = new CaseFoldedSet(exact);
+            suffixLookup = new CaseFoldedSet(suffixes);
+            return this;
+        }
+    }
+
+    /* Patterns on the values of an arbitrary attribute */
+    private static class AttributeCondition implements Condition {
+
+        final String name;
+
+        final Set<String> exact = new LinkedHashSet<>();
+
+        final List<String> patterns = new ArrayList<>();
+
+        boolean any;
+
+        CaseFoldedSet exactLookup;
+
+        String[] prefixes;
+
+        String[] suffixes;
+
+        String[] infixes;
+
+        AttributeCondition(String name) {
+            this.name = name;
+        }
+
+        void add(String value) {
+            if ("*".equals(value)) {
+                any = true;
+            } else if (value.startsWith("*") || value.endsWith("*")) {
+                patterns.add(value);
+            } else {
+                exact.add(value);
+            }
+        }
+
+        @Override
+        public boolean matches(Source attrs) {
+            final String value = attrs.get(name);
+            if (value == null) {
+                return false;
+            }
+
+            if (any) {
+                return true;
+            }
+
+            for (int start = 0, end; start <= value.length(); start = end + 1) {
+                end = tokenEnd(value, start);
+
+                final int from = trimStart(value, start, end);
+                final int to = trimEnd(value, from, end);
+
+                if (exactLookup.contains(value, from, to)) {
+                    return true;
+                }
+
+                for (final String prefix : prefixes) {
+                    if (to - from >= prefix.length() &&
+                            value.regionMatches(true, from, prefix, 0, prefix.length())) {
+                        return true;
+                    }
+                }
+
+                for (final String suffix : suffixes) {
+                    if (to - from >= suffix.length() &&
+                            value.regionMatches(true, to - suffix.length(), suffix, 0, suffix.length())) {
+                        return true;
+                    }
+                }
+
+                for (final String infix : infixes) {
+                    for (int i = from; i <= to - infix.length(); i++) {
+                        if (value.regionMatches(true, i, infix, 0, infix.length())) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return !any && exact.isEmpty() && patterns.isEmpty();
+        }
+
+        @Override
+        public void addAttributes(Set<String> names) {
+            names.add(name);
+        }
+
+        @Override
+        public Condition compile() {
+            final List<String> pre = new ArrayList<>();
+            final List<String> suf = new ArrayList<>();
+            final List<String> in = new ArrayList<>();
+
+            for (final String p : patterns) {
+                final boolean leading = p.startsWith("*");
+                final boolean trailing = p.endsWith("*");
+                final String literal = p.substring(leading ? 1 : 0, trailing ? p.length() - 1 : p.length());
+
+                if (leading && trailing) {
+                    in.add(literal);
+                } else if (leading) {
+                    suf.add(literal);
+                } else {
+                    pre.add(literal);
+                }
+            }
+
+            exactLookup = new CaseFoldedSet(exact);
+            prefixes = pre.toArray(new String[0]);
+            suffixes = suf.toArray(new String[0]);
+            infixes = in.toArray(new String[0]);
+            return this;
+        }
+    }
+
+    /**
+     * Open-addressed hash set of case-folded strings, supporting lookup of a trimmed region of a string without
+     * allocating a substring.
+     */
+    static final class CaseFoldedSet {
+
+        private final String[] table;
+
+        private final int mask;
+
+        CaseFoldedSet(Set<String> values) {
+            int size = 2;
+            while (size < values.size() * 2) {
+                size <<= 1;
+            }
+            table = new String[size];
+            mask = size - 1;
+
+            for (final String v : values) {
+                final String folded = fold(v.trim());
+                for (int i = hash(folded, 0, folded.length()) & mask;; i = (i + 1) & mask) {
+                    if (table[i] == null) {
+                        table[i] = folded;
+                        break;
+                    } else if (table[i].equals(folded)) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        /* Whether the region [start, end) of the given string, trimmed, is in the set */
+        boolean contains(String s, int start, int end) {
+            final int from = trimStart(s, start, end);
+            final int to = trimEnd(s, from, end);
+            final int len = to - from;
+
+            for (int i = hash(s, from, to) & mask; table[i] != null; i = (i + 1) & mask) {
+                if (table[i].length() == len && table[i].regionMatches(true, 0, s, from, len)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String fold(String s) {
+            final char[] chars = new char[s.length()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = Character.toLowerCase(s.charAt(i));
+            }
+            return new String(chars);
+        }
+
+        private static int hash(String s, int from, int to) {
+            int h = 0;
+            for (int i = from; i < to; i++) {
+                h = 31 * h + Character.toLowerCase(s.charAt(i));
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /* End index (exclusive) of the ';'-delimited token starting at start */
+    private static int tokenEnd(String s, int start) {
+        final int end = s.indexOf(';', start);
+        return end < 0 ? s.length() : end;
+    }
+
+    private static int indexOf(String s, char c, int start, int end) {
+        final int i = s.indexOf(c, start);
+        return i < end ? i : -1;
+    }
+
+    private static int trimStart(String s, int start, int end) {
+        while (start < end && Character.isWhitespace(s.charAt(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(String s, int start, int end) {
+        while (end > start && Character.isWhitespace(s.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+}
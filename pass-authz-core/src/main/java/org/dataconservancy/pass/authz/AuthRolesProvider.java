@@ -57,7 +57,7 @@ public class AuthRolesProvider {
 
     public AuthRolesProvider(PassClient passClient) {
         this.client = passClient;
-        this.cache = new ExpiringLRUCache<>(100, Duration.ofMinutes(30));
+        this.cache = ExpiringLRUCache.named("roles", 100, Duration.ofMinutes(30));
     }
 
     public AuthRolesProvider(PassClient passClient, ExpiringLRUCache<URI, User> cache) {
@@ -108,6 +108,16 @@ public class AuthRolesProvider {
         return roles;
     }
 
+    /**
+     * Determine if {@link #getRoles(AuthUser)} can answer without reading from the repository.
+     *
+     * @param authUser The authenticated user.
+     * @return true if the user's roles are known to be available without blocking.
+     */
+    public boolean isCached(AuthUser authUser) {
+        return authUser == null || authUser.getId() == null || cache.isCached(authUser.getId());
+    }
+
     public static URI getAuthRoleURI(String domain, Role role) {
         return URI.create(ROLE_BASE + format("%s#%s", domain, role));
     }
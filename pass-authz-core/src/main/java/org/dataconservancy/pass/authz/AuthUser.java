@@ -20,6 +20,8 @@ import java.net.URI;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.dataconservancy.pass.model.User;
+
 /**
  * @author apb@jhu.edu
  * @author jrm@jhu.edu
@@ -34,6 +36,7 @@ public class AuthUser {
     private boolean isFaculty;
     private String principal;
     private Set<String> domains = new HashSet<>();
+    private Set<User.Role> userRoles = new HashSet<>();
 
     /**
      * the durable local key for the user
@@ -53,7 +56,8 @@ public class AuthUser {
 
 
     /**
-     * boolean indicating whether a person has faculty status
+     * boolean indicating whether a person has faculty status, or more generally is eligible to be a PASS user
+     * according to the configured {@link EligibilityPolicy}
      * @return the boolean
      */
     public boolean isFaculty() {
@@ -144,6 +148,14 @@ public class AuthUser {
         return domains;
     }
     
+    /**
+     * Get the PASS roles this user should be given, according to the configured {@link EligibilityPolicy}
+     * @return Set of roles, or empty if none
+     */
+    public Set<User.Role> getUserRoles() {
+        return userRoles;
+    }
+
     /** Get the user's principal, identifying them in their authorization domain.
      * <p>
      * In shib terms, this is eppn;
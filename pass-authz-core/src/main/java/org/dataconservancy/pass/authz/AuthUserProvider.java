@@ -24,4 +24,14 @@ import javax.servlet.http.HttpServletRequest;
 public interface AuthUserProvider {
 
     public AuthUser getUser(HttpServletRequest request);
+
+    /**
+     * Determine if {@link #getUser(HttpServletRequest)} can answer without a slow lookup.
+     *
+     * @param request the HTTP servlet request
+     * @return true if the user is known to be available without blocking.
+     */
+    public default boolean isCached(HttpServletRequest request) {
+        return false;
+    }
 }
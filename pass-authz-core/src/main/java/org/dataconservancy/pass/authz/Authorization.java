@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static java.util.Collections.unmodifiableSet;
+
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A WebAC authorization, as read from an ACL.
+ */
+public class Authorization {
+
+    static final String ACL_NS = "http://www.w3.org/ns/auth/acl#";
+
+    public static final URI MODE_READ = URI.create(ACL_NS + "Read");
+
+    public static final URI MODE_WRITE = URI.create(ACL_NS + "Write");
+
+    public static final URI MODE_APPEND = URI.create(ACL_NS + "Append");
+
+    final URI uri;
+
+    final Set<URI> accessTo = new HashSet<>();
+
+    final Set<URI> accessToClass = new HashSet<>();
+
+    final Set<URI> agents = new HashSet<>();
+
+    final Set<URI> modes = new HashSet<>();
+
+    /**
+     * @param uri URI of the authorization resource.
+     */
+    public Authorization(URI uri) {
+        this.uri = uri;
+    }
+
+    public URI getUri() {
+        return uri;
+    }
+
+    /**
+     * @return Resources this authorization applies to.
+     */
+    public Set<URI> getAccessTo() {
+        return unmodifiableSet(accessTo);
+    }
+
+    /**
+     * @return Classes of resources this authorization applies to.
+     */
+    public Set<URI> getAccessToClass() {
+        return unmodifiableSet(accessToClass);
+    }
+
+    /**
+     * @return Agents (roles) granted access.
+     */
+    public Set<URI> getAgents() {
+        return unmodifiableSet(agents);
+    }
+
+    /**
+     * @return Access modes granted.
+     */
+    public Set<URI> getModes() {
+        return unmodifiableSet(modes);
+    }
+
+    /**
+     * @return true if this grants read.
+     */
+    public boolean grantsRead() {
+        return modes.contains(MODE_READ);
+    }
+
+    /**
+     * @return true if this grants write, or append (which is all that {@link ACLManager} means by write).
+     */
+    public boolean grantsWrite() {
+        return modes.contains(MODE_WRITE) || modes.contains(MODE_APPEND);
+    }
+
+    /* Determine if any agent is granted a mode it should not have */
+    boolean grantsOtherThan(Set<URI> read, Set<URI> write) {
+        final boolean grantsRead = grantsRead();
+        final boolean grantsWrite = grantsWrite();
+
+        for (final URI agent : agents) {
+            if ((grantsRead && !read.contains(agent)) || (grantsWrite && !write.contains(agent))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -16,6 +16,7 @@
 
 package org.dataconservancy.pass.authz;
 
+import static java.util.Optional.ofNullable;
 import static java.util.stream.Stream.concat;
 
 import java.util.Map;
@@ -71,6 +72,17 @@ public class ConfigUtil {
         return System.getProperty(key, System.getenv(toEnvName(key)));
     }
 
+    /**
+     * Get an integer property, or environment variable.
+     *
+     * @param key Property name.
+     * @param defaultValue Value if neither is set.
+     * @return The value.
+     */
+    public static int intValue(String key, int defaultValue) {
+        return ofNullable(getValue(key)).map(Integer::valueOf).orElse(defaultValue);
+    }
+
     static String removePrefix(String prefix, String key) {
         return key.replaceFirst("^" + prefix, "").replaceFirst(".", "");
     }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static java.lang.String.format;
+import static java.util.Collections.unmodifiableSet;
+import static java.util.Optional.ofNullable;
+import static org.dataconservancy.pass.authz.ConfigUtil.getValue;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.FACULTY_AFFILIATION;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.dataconservancy.pass.model.User.Role;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides whether a user is eligible to have a PASS User created, and which PASS roles they should be given.
+ * <p>
+ * Eligibility is configured with {@value #PROP_ELIGIBILITY_RULES}, which defaults to
+ * <code>affiliation:FACULTY</code>. Roles are configured per role with <code>authz.role.&lt;role&gt;.rules</code>
+ * (e.g. <code>authz.role.admin.rules</code>). The submitter role defaults to the eligibility rules; all others
+ * default to nothing. See {@link AttributeRules} for the rule syntax.
+ * </p>
+ * <p>
+ * Attributes should be {@link #resolve(AttributeRules.Source) resolved} once per user before evaluating the policy,
+ * so each attribute read by any rule is looked up only once.
+ * </p>
+ */
+public class EligibilityPolicy {
+
+    static final Logger LOG = LoggerFactory.getLogger(EligibilityPolicy.class);
+
+    public static final String PROP_ELIGIBILITY_RULES = "authz.eligibility.rules";
+
+    public static final String PROP_ROLE_RULES = "authz.role.%s.rules";
+
+    static final String DEFAULT_ELIGIBILITY_RULES = "affiliation:" + FACULTY_AFFILIATION;
+
+    private static final Role[] ROLES = Role.values();
+
+    private final AttributeRules eligibility;
+
+    private final AttributeRules[] roleRules = new AttributeRules[ROLES.length];
+
+    /* Every possible role set, indexed by bitmask of role ordinals */
+    private final Set<Role>[] roleSets;
+
+    /* Names of every attribute read by any of the rules */
+    private final String[] attributes;
+
+    /**
+     * Create a policy from explicit rules.
+     *
+     * @param eligibility Rules determining eligibility.
+     * @param roles Rules determining each role. Roles not present are never granted.
+     */
+    @SuppressWarnings("unchecked")
+    public EligibilityPolicy(AttributeRules eligibility, Map<Role, AttributeRules> roles) {
+        this.eligibility = eligibility;
+
+        final Set<String> names = new LinkedHashSet<>(eligibility.getAttributes());
+        for (final Role role : ROLES) {
+            roleRules[role.ordinal()] = roles.getOrDefault(role, AttributeRules.NONE);
+            names.addAll(roleRules[role.ordinal()].getAttributes());
+        }
+        attributes = names.toArray(new String[0]);
+
+        roleSets = new Set[1 << ROLES.length];
+        for (int mask = 0; mask < roleSets.length; mask++) {
+            final Set<Role> set = EnumSet.noneOf(Role.class);
+            for (final Role role : ROLES) {
+                if ((mask & (1 << role.ordinal())) != 0) {
+                    set.add(role);
+                }
+            }
+            roleSets[mask] = unmodifiableSet(set);
+        }
+    }
+
+    /**
+     * Compile a policy from configuration properties or environment variables.
+     *
+     * @return the policy.
+     */
+    public static EligibilityPolicy fromConfig() {
+        final String eligibilitySpec = ofNullable(getValue(PROP_ELIGIBILITY_RULES))
+                .orElse(DEFAULT_ELIGIBILITY_RULES);
+        LOG.info("Eligibility rules: {}", eligibilitySpec);
+
+        final Map<Role, AttributeRules> roles = new EnumMap<>(Role.class);
+        for (final Role role : ROLES) {
+            final String spec = ofNullable(getValue(format(PROP_ROLE_RULES, role.name().toLowerCase())))
+                    .orElse(role == Role.SUBMITTER ? eligibilitySpec : null);
+
+            if (spec != null) {
+                LOG.info("Rules for role {}: {}", role, spec);
+                roles.put(role, AttributeRules.compile(spec));
+            }
+        }
+
+        return new EligibilityPolicy(AttributeRules.compile(eligibilitySpec), roles);
+    }
+
+    /**
+     * Look up every attribute read by the policy once, so evaluating the policy does not look any up again.
+     *
+     * @param attrs Source of attribute values, which may be slow.
+     * @return The attribute values read by the policy.
+     */
+    public AttributeRules.Source resolve(AttributeRules.Source attrs) {
+        final String[] values = new String[attributes.length];
+        for (int i = 0; i < attributes.length; i++) {
+            values[i] = attrs.get(attributes[i]);
+        }
+
+        return name -> {
+            for (int i = 0; i < attributes.length; i++) {
+                if (attributes[i].equals(name)) {
+                    return values[i];
+                }
+            }
+            return null;
+        };
+    }
+
+    /**
+     * Determine if a user is eligible.
+     *
+     * @param attrs The user's attributes.
+     * @return true if eligible.
+     */
+    public boolean isEligible(AttributeRules.Source attrs) {
+        return eligibility.matches(attrs);
+    }
+
+    /**
+     * Determine the PASS roles to grant to a user.
+     *
+     * @param attrs The user's attributes.
+     * @return Unmodifiable set of roles, possibly empty.
+     */
+    public Set<Role> getRoles(AttributeRules.Source attrs) {
+        int mask = 0;
+        for (final Role role : ROLES) {
+            if (roleRules[role.ordinal()].matches(attrs)) {
+                mask |= 1 << role.ordinal();
+            }
+        }
+        return roleSets[mask];
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2018 Johns Hopkins University
+ * Copyright 2017 Johns Hopkins University
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,17 +16,32 @@
 
 package org.dataconservancy.pass.authz;
 
+import static java.lang.String.format;
+import static java.util.Optional.ofNullable;
+import static org.dataconservancy.pass.authz.ConfigUtil.getValue;
+import static org.dataconservancy.pass.authz.ConfigUtil.intValue;
+
+import java.lang.management.ManagementFactory;
 import java.time.Duration;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,21 +52,78 @@ import org.slf4j.LoggerFactory;
  * When cache reaches capacity, the oldest entries are evicted. All entries are evicted after a set duration. This is
  * helpful for temporarily caching authorizations that may be expensive to look up.
  * </p>
+ * <p>
+ * Values are loaded by at most a set number of threads at once. If a refresh time is set, a value read through
+ * {@link #getOrDo(Object, Callable)} after being cached that long is reloaded in the background, while the cached
+ * value continues to be used, so frequently used values need not expire.
+ * </p>
+ * <p>
+ * Capacity, expiry, refresh time and loader threads may all be changed while the cache is in use. Entries over a
+ * reduced capacity, or older than a reduced expiry, are evicted immediately. Caches created by
+ * {@link #named(String, int, Duration)} are configured by {@value #PROP_CAPACITY}, {@value #PROP_EXPIRY},
+ * {@value #PROP_REFRESH} and {@value #PROP_LOADERS}, with the cache name in place of <code>%s</code>, and registered
+ * over JMX as {@value #MBEAN_NAME}, so can be tuned without restarting.
+ * </p>
+ * <p>
+ * Expiry and loading run on daemon threads, so an unclosed cache does not keep the JVM running; {@link #close()}
+ * stops them. There is a single cache of each name, shared by everything that asks for it by name. Its JMX name is
+ * qualified by the class loader that loaded this class, so separately deployed components each register their own
+ * caches rather than replacing each other's.
+ * </p>
+ * <p>
+ * A value that fails to load is not kept, so the next request for it tries again.
+ * </p>
  *
  * @author apb@jhu.edu
  */
 @SuppressWarnings("serial")
-public class ExpiringLRUCache<K, V> {
+public class ExpiringLRUCache<K, V> implements ExpiringLRUCacheMXBean, AutoCloseable {
+
+    /** Maximum number of entries */
+    public static final String PROP_CAPACITY = "authz.cache.%s.capacity";
+
+    /** Seconds each entry may live in the cache */
+    public static final String PROP_EXPIRY = "authz.cache.%s.expiry";
+
+    /** Seconds after which a used entry is reloaded in the background, or 0 to never reload */
+    public static final String PROP_REFRESH = "authz.cache.%s.refresh";
+
+    /** Maximum number of values loaded at once */
+    public static final String PROP_LOADERS = "authz.cache.%s.loaders";
+
+    static final String MBEAN_NAME = "org.dataconservancy.pass.authz:type=ExpiringLRUCache,name=%s,loader=%s";
+
+    /* Caches created by name, so that there is only one of each */
+    private static final ConcurrentMap<String, ExpiringLRUCache<?, ?>> NAMED = new ConcurrentHashMap<>();
+
+    static final int DEFAULT_LOADERS = 16;
 
     Logger LOG = LoggerFactory.getLogger(ExpiringLRUCache.class);
 
-    ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "cache-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    final ThreadPoolExecutor runner;
+
+    private volatile int capacity;
 
-    ExecutorService runner = Executors.newCachedThreadPool();
+    private volatile Duration expiry;
 
-    final Duration expiry;
+    private volatile Duration refresh;
 
-    private final Map<K, Future<V>> cache;
+    private final Map<K, Entry<V>> cache;
+
+    private final LongSupplier clock;
+
+    /* Null unless created by name */
+    private volatile String name;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder loads = new LongAdder();
 
     /**
      * Create a cache of the desired size expiration duration for entries.
@@ -60,12 +132,31 @@ public class ExpiringLRUCache<K, V> {
      * @param expiry How long each entry may live in the cache;
      */
     public ExpiringLRUCache(final int capacity, final Duration expiry) {
-        cache = new LinkedHashMap<K, Future<V>>(capacity) {
+        this(capacity, expiry, Duration.ZERO, DEFAULT_LOADERS);
+    }
+
+    /**
+     * Create a cache that refreshes values in the background.
+     *
+     * @param capacity Capacity of the cache.
+     * @param expiry How long each entry may live in the cache.
+     * @param refresh How long after being cached a value used is reloaded, or zero to never reload.
+     * @param loaders Maximum number of values loaded at once.
+     */
+    public ExpiringLRUCache(final int capacity, final Duration expiry, final Duration refresh, final int loaders) {
+        this(capacity, expiry, refresh, loaders, System::currentTimeMillis);
+    }
+
+    /* With a clock, in milliseconds, to tell the age of entries by */
+    ExpiringLRUCache(final int capacity, final Duration expiry, final Duration refresh, final int loaders,
+            final LongSupplier clock) {
+        this.clock = clock;
+        cache = new LinkedHashMap<K, Entry<V>>() {
 
             @Override
-            protected boolean removeEldestEntry(Map.Entry<K, Future<V>> eldest) {
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
 
-                if (size() > capacity) {
+                if (size() > ExpiringLRUCache.this.capacity) {
                     LOG.info("Cache full, removing oldest entry; {}", eldest.getKey());
                     return true;
                 }
@@ -73,7 +164,81 @@ public class ExpiringLRUCache<K, V> {
             }
         };
 
+        this.capacity = capacity;
         this.expiry = expiry;
+        this.refresh = refresh;
+
+        runner = new ThreadPoolExecutor(loaders, loaders, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            final Thread thread = new Thread(r, "cache-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        runner.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the cache of the given name, creating it and registering it over JMX if there is none yet.
+     *
+     * @param name Name of the cache, e.g. <code>users</code>.
+     * @param capacity Capacity of the cache, unless configured or already created.
+     * @param expiry How long each entry may live in the cache, unless configured or already created.
+     * @return The cache.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> ExpiringLRUCache<K, V> named(String name, int capacity, Duration expiry) {
+        return (ExpiringLRUCache<K, V>) NAMED.computeIfAbsent(name, n -> create(n, capacity, expiry));
+    }
+
+    private static ExpiringLRUCache<?, ?> create(String name, int capacity, Duration expiry) {
+        final ExpiringLRUCache<?, ?> cache = new ExpiringLRUCache<>(
+                intValue(format(PROP_CAPACITY, name), capacity),
+                ofNullable(getValue(format(PROP_EXPIRY, name))).map(Long::valueOf).map(Duration::ofSeconds)
+                        .orElse(expiry),
+                ofNullable(getValue(format(PROP_REFRESH, name))).map(Long::valueOf).map(Duration::ofSeconds)
+                        .orElse(Duration.ZERO),
+                intValue(format(PROP_LOADERS, name), DEFAULT_LOADERS));
+
+        cache.LOG.info("Cache {}: capacity {}, expiry {}s, refresh {}s, {} loaders", name, cache.getCapacity(),
+                cache.getExpirySeconds(), cache.getRefreshSeconds(), cache.getLoaders());
+        cache.name = name;
+        cache.register(objectName(name));
+        return cache;
+    }
+
+    /* JMX name of a named cache, unique to the class loader of this class */
+    static String objectName(String name) {
+        return format(MBEAN_NAME, name, Integer.toHexString(System.identityHashCode(ExpiringLRUCache.class
+                .getClassLoader())));
+    }
+
+    /**
+     * Stop the cache's threads and drop its entries. A named cache is also unregistered, so asking for it by name
+     * again creates a new one.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        runner.shutdown();
+        synchronized (cache) {
+            cache.clear();
+        }
+
+        final String named = name;
+        if (named != null && NAMED.remove(named, this)) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(objectName(named)));
+            } catch (final JMException e) {
+                LOG.warn("Could not unregister MBean {}", objectName(named), e);
+            }
+        }
+    }
+
+    private void register(String objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(objectName));
+        } catch (final JMException e) {
+            LOG.warn("Could not register MBean {}", objectName, e);
+        }
     }
 
     /**
@@ -88,25 +253,139 @@ public class ExpiringLRUCache<K, V> {
         final Future<V> result;
         synchronized (cache) {
 
-            if (cache.containsKey(key)) {
-                result = cache.get(key);
+            final Entry<V> entry = current(key);
+            if (entry != null) {
+                result = entry.value;
+                hits.increment();
+                LookupCounts.record(result.isDone() ? LookupCounts.Outcome.HIT : LookupCounts.Outcome.WAIT);
+                if (refreshDue(entry)) {
+                    refresh(key, entry, generator);
+                }
             } else {
                 result = runner.submit(generator);
-                cache.put(key, result);
-                scheduler.schedule(() -> {
-                    remove(key);
-                }, expiry.toMillis(), TimeUnit.MILLISECONDS);
+                store(key, result);
+                loads.increment();
+                LookupCounts.record(LookupCounts.Outcome.LOAD);
             }
         }
-        return doGet(result);
+
+        try {
+            return doGet(result);
+        } catch (final RuntimeException e) {
+            evict(key, result);
+            throw e;
+        }
+    }
+
+    /**
+     * Place a known value in the cache, replacing any existing value.
+     *
+     * @param key Cache key
+     * @param value The value
+     */
+    public void put(K key, V value) {
+        synchronized (cache) {
+            store(key, CompletableFuture.completedFuture(value));
+        }
     }
 
-    private void remove(K key) {
+    /**
+     * Remove a value from the cache, if present.
+     *
+     * @param key Cache key
+     */
+    public void remove(K key) {
         synchronized (cache) {
             cache.remove(key);
         }
     }
 
+    /*
+     * Get a live entry. An entry cached before the expiry was lowered may still be waiting on its original expiry
+     * time, so its age is checked here too.
+     */
+    private Entry<V> current(K key) {
+        final Entry<V> entry = cache.get(key);
+        if (entry != null && clock.getAsLong() - entry.time >= expiry.toMillis()) {
+            cache.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /* Do not keep a failed load cached, unless it has been replaced in the meantime */
+    private void evict(K key, Future<V> failed) {
+        synchronized (cache) {
+            final Entry<V> entry = cache.get(key);
+            if (entry != null && entry.value == failed) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    private void store(K key, Future<V> value) {
+        final Entry<V> entry = new Entry<>(value, clock.getAsLong());
+        cache.remove(key);
+        cache.put(key, entry);
+        scheduleExpiry(key, entry, expiry.toMillis());
+    }
+
+    /* Only expire this particular entry, not any that replaced it in the meantime */
+    private void scheduleExpiry(K key, Entry<V> entry, long delay) {
+        scheduler.schedule(() -> {
+            synchronized (cache) {
+                if (cache.get(key) == entry) {
+                    // The expiry may have been raised since this was scheduled
+                    final long remaining = entry.time + expiry.toMillis() - clock.getAsLong();
+                    if (remaining > 0) {
+                        scheduleExpiry(key, entry, remaining);
+                    } else {
+                        cache.remove(key);
+                    }
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean refreshDue(Entry<V> entry) {
+        final Duration after = refresh;
+        return !after.isZero() && !entry.refreshing && entry.value.isDone() &&
+                clock.getAsLong() - entry.time >= after.toMillis();
+    }
+
+    /* Reload a value in the background, replacing the entry if it is still cached */
+    private void refresh(K key, Entry<V> entry, Callable<V> generator) {
+        entry.refreshing = true;
+        runner.execute(() -> {
+            try {
+                final V value = generator.call();
+                synchronized (cache) {
+                    if (cache.get(key) == entry) {
+                        store(key, CompletableFuture.completedFuture(value));
+                    }
+                }
+            } catch (final Exception e) {
+                LOG.warn("Could not refresh cached value for {}, keeping the old one", key, e);
+                synchronized (cache) {
+                    entry.refreshing = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Determine if a value is in the cache and ready, so getting it will not block.
+     *
+     * @param key Cache key.
+     * @return true if a value is cached.
+     */
+    public boolean isCached(K key) {
+        synchronized (cache) {
+            final Entry<V> entry = current(key);
+            return entry != null && entry.value.isDone();
+        }
+    }
+
     /**
      * Get a cached value, or null if not present in cache.
      *
@@ -115,10 +394,114 @@ public class ExpiringLRUCache<K, V> {
      */
     public V get(K key) {
         synchronized (cache) {
-            return Optional.ofNullable(cache.get(key)).map(ExpiringLRUCache::doGet).orElse(null);
+            final Entry<V> entry = current(key);
+            if (entry == null) {
+                return null;
+            }
+
+            try {
+                return doGet(entry.value);
+            } catch (final RuntimeException e) {
+                evict(key, entry.value);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public int getSize() {
+        synchronized (cache) {
+            return cache.size();
         }
     }
 
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1, was " + capacity);
+        }
+
+        synchronized (cache) {
+            this.capacity = capacity;
+            final Iterator<K> oldest = cache.keySet().iterator();
+            while (cache.size() > capacity && oldest.hasNext()) {
+                oldest.next();
+                oldest.remove();
+            }
+        }
+        LOG.info("Cache capacity is now {}", capacity);
+    }
+
+    @Override
+    public long getExpirySeconds() {
+        return expiry.getSeconds();
+    }
+
+    @Override
+    public void setExpirySeconds(long seconds) {
+        if (seconds < 1) {
+            throw new IllegalArgumentException("Expiry must be at least 1 second, was " + seconds);
+        }
+
+        synchronized (cache) {
+            expiry = Duration.ofSeconds(seconds);
+            final long oldest = clock.getAsLong() - expiry.toMillis();
+            cache.values().removeIf(entry -> entry.time <= oldest);
+        }
+        LOG.info("Cache expiry is now {}s", seconds);
+    }
+
+    @Override
+    public long getRefreshSeconds() {
+        return refresh.getSeconds();
+    }
+
+    @Override
+    public void setRefreshSeconds(long seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Refresh time must not be negative, was " + seconds);
+        }
+        refresh = Duration.ofSeconds(seconds);
+        LOG.info("Cache refresh time is now {}s", seconds);
+    }
+
+    @Override
+    public int getLoaders() {
+        return runner.getMaximumPoolSize();
+    }
+
+    @Override
+    public synchronized void setLoaders(int loaders) {
+        if (loaders < 1) {
+            throw new IllegalArgumentException("Loaders must be at least 1, was " + loaders);
+        }
+
+        // The core size may never exceed the maximum
+        if (loaders > runner.getMaximumPoolSize()) {
+            runner.setMaximumPoolSize(loaders);
+            runner.setCorePoolSize(loaders);
+        } else {
+            runner.setCorePoolSize(loaders);
+            runner.setMaximumPoolSize(loaders);
+        }
+        LOG.info("Cache loaders are now {}", loaders);
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getLoads() {
+        return loads.sum();
+    }
+
     private static <V> V doGet(Future<V> value) {
         try {
             return value.get();
@@ -133,4 +516,20 @@ public class ExpiringLRUCache<K, V> {
             return null;
         }
     }
+
+    /* A cached value, and when it was cached */
+    private static class Entry<V> {
+
+        final Future<V> value;
+
+        final long time;
+
+        /* Guarded by the cache */
+        boolean refreshing;
+
+        Entry(Future<V> value, long time) {
+            this.value = value;
+            this.time = time;
+        }
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+/**
+ * JMX view of an {@link ExpiringLRUCache}, for tuning it while in use.
+ */
+public interface ExpiringLRUCacheMXBean {
+
+    /**
+     * @return Number of entries in the cache.
+     */
+    int getSize();
+
+    /**
+     * @return Maximum number of entries.
+     */
+    int getCapacity();
+
+    /**
+     * Change the maximum number of entries, evicting the oldest entries over it.
+     *
+     * @param capacity The new capacity, at least 1.
+     */
+    void setCapacity(int capacity);
+
+    /**
+     * @return Seconds each entry may live in the cache.
+     */
+    long getExpirySeconds();
+
+    /**
+     * Change how long entries may live in the cache, evicting any older than that.
+     *
+     * @param seconds The new expiry, at least 1.
+     */
+    void setExpirySeconds(long seconds);
+
+    /**
+     * @return Seconds after which a used entry is reloaded in the background, or 0 if never.
+     */
+    long getRefreshSeconds();
+
+    /**
+     * @param seconds Seconds after which a used entry is reloaded in the background, or 0 to never reload.
+     */
+    void setRefreshSeconds(long seconds);
+
+    /**
+     * @return Maximum number of values loaded at once.
+     */
+    int getLoaders();
+
+    /**
+     * @param loaders Maximum number of values loaded at once, at least 1.
+     */
+    void setLoaders(int loaders);
+
+    /**
+     * @return Number of lookups that found an entry.
+     */
+    long getHits();
+
+    /**
+     * @return Number of lookups that had to load a value.
+     */
+    long getLoads();
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merges grants on the same resource that arrive within a short window into a single write.
+ * <p>
+ * Grants are submitted with a scope, such as the repository client they are written with, and only grants on the
+ * same resource in the same scope are merged. The first grant on a resource opens a batch, and any further grants on
+ * that resource are added to it until the window closes. The batch is then written once, by the writer given with
+ * its first grant, with every role requested by any of its grants, and each grant's future completes with the
+ * outcome of that write. Batches are written on the given executor, so batches for different resources may be
+ * written at the same time, but batches for the same resource are written one after another, in the order they were
+ * opened. Nothing is held once a batch has been written, so a coalescer may be shared by any number of writers.
+ * </p>
+ * <p>
+ * Pending grants are only held in memory. They are written by {@link #flushAll()} and by {@link #close()}, but are
+ * lost if the JVM crashes or is killed first. Since a grant's future does not complete until it has been written, no
+ * grant that was reported as written can be lost this way.
+ * </p>
+ */
+class GrantCoalescer implements AutoCloseable {
+
+    static final Logger LOG = LoggerFactory.getLogger(GrantCoalescer.class);
+
+    /* Shared by every coalescer, and only created once first used */
+    private static class Shared {
+
+        static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "acl-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private final Map<Target, Batch> pending = new LinkedHashMap<>();
+
+    /* Guarded by pending: the last write started for each target, while it is running */
+    private final Map<Target, CompletableFuture<Void>> writing = new HashMap<>();
+
+    private final Duration window;
+
+    private final Executor writers;
+
+    /* Guarded by pending */
+    private boolean closed;
+
+    /**
+     * @param window How long to collect grants on a resource before writing them.
+     * @param writers Executor to write batches on.
+     */
+    GrantCoalescer(Duration window, Executor writers) {
+        this.window = window;
+        this.writers = writers;
+    }
+
+    /**
+     * Add a grant to the batch for its resource.
+     *
+     * @param scope Scope of the grant; only grants in the same scope are merged.
+     * @param resource The resource.
+     * @param read Roles to be granted read.
+     * @param write Roles to be granted write.
+     * @param writer Writes the batch, returning the ACL URI, if this grant opens it.
+     * @return Future ACL URI, completed when the batch is written.
+     */
+    CompletableFuture<URI> submit(Object scope, URI resource, Collection<URI> read, Collection<URI> write,
+            Function<Batch, URI> writer) {
+        final Target target = new Target(scope, resource);
+        synchronized (pending) {
+            if (closed) {
+                throw new IllegalStateException("No more grants are accepted, the coalescer has been closed");
+            }
+
+            Batch batch = pending.get(target);
+            if (batch == null) {
+                final Batch scheduled = new Batch(target, writer);
+
+                // Runs no sooner than this lock is released, so always finds the batch pending
+                Shared.SCHEDULER.schedule(() -> flush(scheduled), window.toMillis(), TimeUnit.MILLISECONDS);
+                pending.put(target, scheduled);
+                batch = scheduled;
+            }
+
+            batch.read.addAll(read);
+            batch.write.addAll(write);
+            batch.grants++;
+            return batch.future;
+        }
+    }
+
+    /**
+     * Write all pending batches now, and wait for them to be written.
+     */
+    void flushAll() {
+        flushAll(batch -> true);
+    }
+
+    /**
+     * Write all pending batches in a scope now, and wait for them to be written.
+     *
+     * @param scope The scope.
+     */
+    void flushAll(Object scope) {
+        flushAll(batch -> Objects.equals(batch.target.scope, scope));
+    }
+
+    private void flushAll(Predicate<Batch> selected) {
+        final List<Batch> batches;
+        synchronized (pending) {
+            batches = pending.values().stream().filter(selected).collect(Collectors.toList());
+        }
+
+        if (!batches.isEmpty()) {
+            LOG.info("Flushing {} pending ACL grant batches", batches.size());
+        }
+        batches.forEach(this::flush);
+
+        // Failures are reported to each grant's caller
+        batches.forEach(batch -> batch.future.handle((acl, e) -> acl).join());
+    }
+
+    /**
+     * Write all pending batches, and accept no more grants.
+     */
+    @Override
+    public void close() {
+        synchronized (pending) {
+            closed = true;
+        }
+        flushAll();
+    }
+
+    private void flush(Batch batch) {
+        synchronized (pending) {
+            // Already written by flushAll()
+            if (!pending.remove(batch.target, batch)) {
+                return;
+            }
+
+            final CompletableFuture<Void> previous = writing.get(batch.target);
+            final CompletableFuture<Void> next = previous == null
+                    ? CompletableFuture.runAsync(() -> write(batch), writers)
+                    : previous.thenRunAsync(() -> write(batch), writers);
+            writing.put(batch.target, next);
+            next.whenComplete((v, e) -> {
+                synchronized (pending) {
+                    writing.remove(batch.target, next);
+                }
+            });
+        }
+    }
+
+    private void write(Batch batch) {
+        LOG.debug("Writing {} coalesced grants on <{}>", batch.grants, batch.resource);
+        try {
+            batch.future.complete(batch.writer.apply(batch));
+        } catch (final Exception e) {
+            batch.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Grants collected for a single resource.
+     */
+    static class Batch {
+
+        final Target target;
+
+        final URI resource;
+
+        final Function<Batch, URI> writer;
+
+        final Set<URI> read = new HashSet<>();
+
+        final Set<URI> write = new HashSet<>();
+
+        final CompletableFuture<URI> future = new CompletableFuture<>();
+
+        int grants;
+
+        Batch(Target target, Function<Batch, URI> writer) {
+            this.target = target;
+            this.resource = target.resource;
+            this.writer = writer;
+        }
+    }
+
+    /* A resource within a scope */
+    private static class Target {
+
+        final Object scope;
+
+        final URI resource;
+
+        Target(Object scope, URI resource) {
+            this.scope = scope;
+            this.resource = resource;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Target)) {
+                return false;
+            }
+            final Target other = (Target) o;
+            return Objects.equals(scope, other.scope) && resource.equals(other.resource);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(scope, resource);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import java.util.Arrays;
+
+/**
+ * Counts the cache lookups made by the current thread, by outcome.
+ * <p>
+ * Every {@link ExpiringLRUCache#getOrDo(Object, java.util.concurrent.Callable)} is counted, so resetting the counts
+ * before some work and reading them after shows how many backend calls that work triggered, and how many it avoided.
+ * </p>
+ */
+public final class LookupCounts {
+
+    /**
+     * Outcome of a cache lookup.
+     */
+    public enum Outcome {
+        /** The value was cached */
+        HIT,
+        /** The value was not cached, so was loaded from the backend */
+        LOAD,
+        /** The value was already being loaded by another thread, so was waited for */
+        WAIT
+    }
+
+    private static final ThreadLocal<int[]> COUNTS = ThreadLocal.withInitial(() -> new int[Outcome.values().length]);
+
+    private LookupCounts() {
+    }
+
+    static void record(Outcome outcome) {
+        COUNTS.get()[outcome.ordinal()]++;
+    }
+
+    /**
+     * Reset the current thread's counts to zero.
+     */
+    public static void reset() {
+        Arrays.fill(COUNTS.get(), 0);
+    }
+
+    /**
+     * @param outcome A lookup outcome.
+     * @return Number of lookups on the current thread with that outcome, since the last reset.
+     */
+    public static int get(Outcome outcome) {
+        return COUNTS.get()[outcome.ordinal()];
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Minimal streaming N-Triples tokenizer.
+ * <p>
+ * Reads one triple at a time into a reused buffer. Terms are located in place, so callers can test a predicate with
+ * {@link #predicateIs(String)} and only materialize the terms they care about. This lets a caller stop reading as
+ * soon as it finds what it is looking for. Lines that are blank, comments, or cannot be parsed are skipped.
+ * </p>
+ */
+class NTriplesReader {
+
+    private final Reader in;
+
+    private final char[] buf = new char[8192];
+
+    private int pos;
+
+    private int limit;
+
+    private char[] line = new char[256];
+
+    private int length;
+
+    private int subjectStart, subjectEnd, predicateStart, predicateEnd, objectStart, objectEnd;
+
+    private boolean objectIsLiteral;
+
+    /* Bounds of the term most recently parsed */
+    private int termStart, termEnd;
+
+    NTriplesReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Advance to the next triple.
+     *
+     * @return false if there are no more triples.
+     * @throws IOException if the underlying reader fails.
+     */
+    boolean next() throws IOException {
+        while (readLine()) {
+            if (parseLine()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determine if the current predicate is the given IRI, without allocating.
+     *
+     * @param iri IRI, without angle brackets.
+     * @return true if the predicate is that IRI.
+     */
+    boolean predicateIs(String iri) {
+        return regionIs(predicateStart, predicateEnd, iri);
+    }
+
+    /**
+     * Determine if the current subject is the given IRI, without allocating.
+     *
+     * @param iri IRI, without angle brackets.
+     * @return true if the subject is that IRI.
+     */
+    boolean subjectIs(String iri) {
+        return regionIs(subjectStart, subjectEnd, iri);
+    }
+
+    /**
+     * Determine if the current object is the given IRI, without allocating.
+     *
+     * @param iri IRI, without angle brackets.
+     * @return true if the object is that IRI.
+     */
+    boolean objectIs(String iri) {
+        return !objectIsLiteral && regionIs(objectStart, objectEnd, iri);
+    }
+
+    /**
+     * @return Current subject IRI (without angle brackets) or blank node label.
+     */
+    String subject() {
+        return new String(line, subjectStart, subjectEnd - subjectStart);
+    }
+
+    /**
+     * @return Current predicate IRI, without angle brackets.
+     */
+    String predicate() {
+        return new String(line, predicateStart, predicateEnd - predicateStart);
+    }
+
+    /**
+     * @return Current object IRI (without angle brackets), blank node label, or unescaped literal lexical form.
+     */
+    String object() {
+        return objectIsLiteral ? unescape(objectStart, objectEnd) : new String(line, objectStart, objectEnd -
+                objectStart);
+    }
+
+    /**
+     * @return true if the current object is a literal.
+     */
+    boolean objectIsLiteral() {
+        return objectIsLiteral;
+    }
+
+    private boolean regionIs(int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (line[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean readLine() throws IOException {
+        length = 0;
+        while (true) {
+            if (pos == limit) {
+                limit = in.read(buf, 0, buf.length);
+                pos = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return length > 0;
+                }
+            }
+
+            final char c = buf[pos++];
+            if (c == '\n') {
+                return true;
+            } else if (c != '\r') {
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, length * 2);
+                }
+                line[length++] = c;
+            }
+        }
+    }
+
+    private boolean parseLine() {
+        int i = skipWhitespace(0);
+        if (i == length || line[i] == '#') {
+            return false;
+        }
+
+        // subject
+        i = parseResource(i);
+        if (i < 0) {
+            return false;
+        }
+        subjectStart = termStart;
+        subjectEnd = termEnd;
+
+        // predicate
+        i = skipWhitespace(i);
+        if (i == length || line[i] != '<') {
+            return false;
+        }
+        i = parseResource(i);
+        if (i < 0) {
+            return false;
+        }
+        predicateStart = termStart;
+        predicateEnd = termEnd;
+
+        // object
+        i = skipWhitespace(i);
+        if (i == length) {
+            return false;
+        }
+        if (line[i] == '"') {
+            i = parseLiteral(i);
+            objectIsLiteral = true;
+        } else {
+            i = parseResource(i);
+            objectIsLiteral = false;
+        }
+        if (i < 0) {
+            return false;
+        }
+        objectStart = termStart;
+        objectEnd = termEnd;
+
+        i = skipWhitespace(i);
+        return i < length && line[i] == '.';
+    }
+
+    /* Parse an IRI or blank node starting at i, returning the index after it, or -1 */
+    private int parseResource(int i) {
+        if (i >= length) {
+            return -1;
+        } else if (line[i] == '<') {
+            termStart = i + 1;
+            for (int j = termStart; j < length; j++) {
+                if (line[j] == '>') {
+                    termEnd = j;
+                    return j + 1;
+                }
+            }
+            return -1;
+        } else if (line[i] == '_' && i + 1 < length && line[i + 1] == ':') {
+            termStart = i;
+            int j = i + 2;
+            while (j < length && !Character.isWhitespace(line[j])) {
+                j++;
+            }
+            termEnd = j;
+            return j;
+        }
+        return -1;
+    }
+
+    /* Parse a literal starting at the opening quote at i, including any language tag or datatype */
+    private int parseLiteral(int i) {
+        termStart = i + 1;
+        int j = termStart;
+        while (j < length && line[j] != '"') {
+            j += line[j] == '\\' ? 2 : 1;
+        }
+        if (j >= length) {
+            return -1;
+        }
+        termEnd = j++;
+
+        if (j < length && line[j] == '@') {
+            while (j < length && line[j] != '.' && !Character.isWhitespace(line[j])) {
+                j++;
+            }
+        } else if (j + 1 < length && line[j] == '^' && line[j + 1] == '^') {
+            final int start = termStart;
+            final int end = termEnd;
+            j = parseResource(j + 2);
+            termStart = start;
+            termEnd = end;
+        }
+        return j;
+    }
+
+    private int skipWhitespace(int i) {
+        while (i < length && (line[i] == ' ' || line[i] == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    private String unescape(int start, int end) {
+        final StringBuilder value = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            final char c = line[i];
+            if (c != '\\' || i + 1 == end) {
+                value.append(c);
+                continue;
+            }
+
+            final char e = line[++i];
+            switch (e) {
+            case 't':
+                value.append('\t');
+                break;
+            case 'n':
+                value.append('\n');
+                break;
+            case 'r':
+                value.append('\r');
+                break;
+            case 'b':
+                value.append('\b');
+                break;
+            case 'f':
+                value.append('\f');
+                break;
+            case 'u':
+            case 'U':
+                final int digits = e == 'u' ? 4 : 8;
+                if (i + digits < end) {
+                    value.appendCodePoint(Integer.parseInt(new String(line, i + 1, digits), 16));
+                    i += digits;
+                } else {
+                    value.append(e);
+                }
+                break;
+            default:
+                value.append(e);
+            }
+        }
+        return value.toString();
+    }
+}
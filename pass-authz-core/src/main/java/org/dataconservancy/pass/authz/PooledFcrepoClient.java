@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.fcrepo.client.FcrepoClient;
+import org.fcrepo.client.FcrepoOperationFailedException;
+import org.fcrepo.client.FcrepoResponse;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+
+/**
+ * Fedora client that sends its requests over a shared pool of connections.
+ * <p>
+ * Credentials are sent with every request, rather than waiting to be challenged for them, which saves a round trip
+ * per request.
+ * </p>
+ * <p>
+ * {@link FcrepoClient} has no constructor that accepts a transport, so the superclass still builds an HTTP client of
+ * its own. It is never used, since every request goes through {@link #executeRequest(URI, HttpRequestBase)}, and it
+ * opens no connections or threads until it is used, so it costs no more than the object itself. {@link SharedClients}
+ * keeps one instance per set of credentials, so there are only ever a few of them.
+ * </p>
+ */
+class PooledFcrepoClient extends FcrepoClient {
+
+    private final CloseableHttpClient http;
+
+    private final String authorization;
+
+    PooledFcrepoClient(HttpClientConnectionManager connections, long keepAliveMillis, String username,
+            String password) {
+        // Builds the unused HTTP client described above
+        super(null, null, null, false);
+
+        this.http = HttpClients.custom()
+                .setConnectionManager(connections)
+                .setConnectionManagerShared(true)
+                .setKeepAliveStrategy((response, context) -> {
+                    final long requested = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(
+                            response, context);
+                    return requested > 0 ? Math.min(requested, keepAliveMillis) : keepAliveMillis;
+                })
+                .build();
+
+        this.authorization = username == null || username.isEmpty() ? null : "Basic " + Base64.getEncoder()
+                .encodeToString((username + ":" + (password != null ? password : "")).getBytes(UTF_8));
+    }
+
+    @Override
+    public FcrepoResponse executeRequest(URI url, HttpRequestBase request) throws FcrepoOperationFailedException {
+        if (authorization != null) {
+            request.setHeader("Authorization", authorization);
+        }
+
+        try {
+            // The connection is returned to the pool once the body is read or closed
+            final HttpResponse response = http.execute(request);
+            final InputStream body = response.getEntity() != null ? response.getEntity().getContent() : null;
+            return new FcrepoResponse(url, response.getStatusLine().getStatusCode(), headers(response), body);
+        } catch (final IOException e) {
+            throw new FcrepoOperationFailedException(url, -1, e.getMessage());
+        }
+    }
+
+    private static Map<String, List<String>> headers(HttpResponse response) {
+        final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (final Header header : response.getAllHeaders()) {
+            headers.computeIfAbsent(header.getName(), h -> new ArrayList<>()).add(header.getValue());
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import java.net.URI;
+
+/**
+ * A change to a repository resource.
+ */
+public class RepositoryEvent {
+
+    /**
+     * Kind of change.
+     */
+    public enum Type {
+        CREATED, UPDATED, DELETED
+    }
+
+    private final Type type;
+
+    private final URI resource;
+
+    /**
+     * @param type Kind of change.
+     * @param resource The resource that changed.
+     */
+    public RepositoryEvent(Type type, URI resource) {
+        this.type = type;
+        this.resource = resource;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public URI getResource() {
+        return resource;
+    }
+
+    @Override
+    public String toString() {
+        return type + " <" + resource + ">";
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import java.util.function.Consumer;
+
+/**
+ * Delivers repository change events, e.g. from the Fedora JMS topic.
+ */
+public interface RepositoryEventSource extends AutoCloseable {
+
+    /**
+     * Start delivering events to a listener.
+     * <p>
+     * Events for the same resource must be delivered in the order they happened. The listener may be called from
+     * any thread.
+     * </p>
+     *
+     * @param listener Receives events.
+     */
+    void subscribe(Consumer<RepositoryEvent> listener);
+
+    /**
+     * Stop delivering events.
+     */
+    @Override
+    void close();
+}
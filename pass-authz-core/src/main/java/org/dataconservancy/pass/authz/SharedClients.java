@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static org.dataconservancy.pass.authz.ConfigUtil.intValue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.fcrepo.client.FcrepoClient;
+
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.client.PassClientFactory;
+import org.dataconservancy.pass.client.fedora.FedoraConfig;
+
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Repository clients shared by every pass-authz component in the JVM.
+ * <p>
+ * All {@link FcrepoClient}s from here share one pool of keep-alive connections, configured by:
+ * </p>
+ * <dl>
+ * <dt>{@value #PROP_MAX_CONNECTIONS}</dt>
+ * <dd>Maximum open connections in total (default 200)</dd>
+ * <dt>{@value #PROP_MAX_PER_ROUTE}</dt>
+ * <dd>Maximum open connections to any one host (default 50)</dd>
+ * <dt>{@value #PROP_KEEPALIVE}</dt>
+ * <dd>Seconds to keep an idle connection open, if the server does not ask for less (default 60)</dd>
+ * <dt>{@value #PROP_IDLE_EVICT}</dt>
+ * <dd>Seconds after which idle connections are closed in the background (default 30)</dd>
+ * </dl>
+ * <p>
+ * Each may also be given as an environment variable, e.g. <code>AUTHZ_HTTP_MAX_CONNECTIONS</code>. The
+ * {@link PassClient} does not expose its transport, so the best that can be done is to share a single instance of it.
+ * </p>
+ */
+public class SharedClients {
+
+    static final Logger LOG = LoggerFactory.getLogger(SharedClients.class);
+
+    public static final String PROP_MAX_CONNECTIONS = "authz.http.max.connections";
+
+    public static final String PROP_MAX_PER_ROUTE = "authz.http.max.per.route";
+
+    public static final String PROP_KEEPALIVE = "authz.http.keepalive";
+
+    public static final String PROP_IDLE_EVICT = "authz.http.idle.evict";
+
+    private SharedClients() {
+    }
+
+    private static class Pool {
+
+        static final PoolingHttpClientConnectionManager CONNECTIONS = connections();
+
+        static final long KEEPALIVE_MILLIS = TimeUnit.SECONDS.toMillis(intValue(PROP_KEEPALIVE, 60));
+
+        static final FcrepoClient FCREPO = new PooledFcrepoClient(CONNECTIONS, KEEPALIVE_MILLIS,
+                FedoraConfig.getUserName(), FedoraConfig.getPassword());
+
+        /* username, password -> client */
+        static final ConcurrentMap<List<String>, FcrepoClient> BY_CREDENTIALS = new ConcurrentHashMap<>();
+    }
+
+    private static class Pass {
+
+        static final PassClient CLIENT = PassClientFactory.getPassClient();
+    }
+
+    /**
+     * Get the shared repository client, using the configured Fedora credentials.
+     *
+     * @return The client.
+     */
+    public static FcrepoClient fcrepoClient() {
+        return Pool.FCREPO;
+    }
+
+    /**
+     * Get a repository client using the given credentials, sharing the connection pool.
+     *
+     * @param username Fedora username.
+     * @param password Fedora password.
+     * @return The client for those credentials, created when they are first used.
+     */
+    public static FcrepoClient fcrepoClient(String username, String password) {
+        return Pool.BY_CREDENTIALS.computeIfAbsent(Arrays.asList(username, password),
+                c -> new PooledFcrepoClient(Pool.CONNECTIONS, Pool.KEEPALIVE_MILLIS, username, password));
+    }
+
+    /**
+     * Get the shared PASS client.
+     *
+     * @return The client.
+     */
+    public static PassClient passClient() {
+        return Pass.CLIENT;
+    }
+
+    private static PoolingHttpClientConnectionManager connections() {
+        final PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+        connections.setMaxTotal(intValue(PROP_MAX_CONNECTIONS, 200));
+        connections.setDefaultMaxPerRoute(intValue(PROP_MAX_PER_ROUTE, 50));
+
+        final int idle = intValue(PROP_IDLE_EVICT, 30);
+        new IdleConnectionEvictor(connections, idle, TimeUnit.SECONDS, idle, TimeUnit.SECONDS).start();
+
+        LOG.info("Shared HTTP connection pool: {} connections, {} per host, idle connections closed after {}s",
+                connections.getMaxTotal(), connections.getDefaultMaxPerRoute(), idle);
+        return connections;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static java.lang.String.format;
+import static org.dataconservancy.pass.authz.ConfigUtil.getValue;
+import static org.dataconservancy.pass.authz.EligibilityPolicy.PROP_ELIGIBILITY_RULES;
+import static org.dataconservancy.pass.authz.EligibilityPolicy.PROP_ROLE_RULES;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.CONFIG_SHIB_USE_HEADERS;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.dataconservancy.pass.model.User;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * User and role providers shared by every pass-authz component in the JVM.
+ * <p>
+ * Each provider caches what it looks up, so components that each create their own resolve and cache the same users
+ * separately. Components that get their providers from here instead share one set of caches, so a user looked up by
+ * one is cached for all. Providers are created when first asked for, using the {@link SharedClients#passClient()
+ * shared PASS client}, and are keyed by the configuration that affects what they find. Components configured
+ * differently get providers of their own.
+ * </p>
+ * <p>
+ * Sharing only spans the class loader that loads this class. As packaged here, PassRolesFilter is a shaded jar in
+ * Tomcat's <code>lib</code> directory while pass-user-service bundles its own pass-authz-core, so the filter and the
+ * user service each have their own providers. Sharing is between the components in each class loader, such as every
+ * instance of the filter, or of the servlet, and anything else in the same web application.
+ * </p>
+ */
+public class SharedProviders {
+
+    static final Logger LOG = LoggerFactory.getLogger(SharedProviders.class);
+
+    private static final Map<Map<String, String>, Providers> REGISTRY = new ConcurrentHashMap<>();
+
+    private SharedProviders() {
+    }
+
+    /**
+     * Get the shared user provider for the current configuration.
+     *
+     * @return The provider.
+     */
+    public static ShibAuthUserProvider userProvider() {
+        return providers().users;
+    }
+
+    /**
+     * Get the shared roles provider for the current configuration.
+     *
+     * @return The provider.
+     */
+    public static AuthRolesProvider rolesProvider() {
+        return providers().roles;
+    }
+
+    private static Providers providers() {
+        return REGISTRY.computeIfAbsent(configuration(), Providers::new);
+    }
+
+    /* Values of every setting that affects the users or roles found */
+    static Map<String, String> configuration() {
+        final Map<String, String> config = new HashMap<>();
+        config.put(CONFIG_SHIB_USE_HEADERS, getValue(CONFIG_SHIB_USE_HEADERS));
+        config.put(PROP_ELIGIBILITY_RULES, getValue(PROP_ELIGIBILITY_RULES));
+        for (final User.Role role : User.Role.values()) {
+            final String key = format(PROP_ROLE_RULES, role.name().toLowerCase());
+            config.put(key, getValue(key));
+        }
+        return Collections.unmodifiableMap(config);
+    }
+
+    private static class Providers {
+
+        final ShibAuthUserProvider users;
+
+        final AuthRolesProvider roles;
+
+        Providers(Map<String, String> config) {
+            LOG.info("Creating shared user and role providers for {}", config);
+            users = new ShibAuthUserProvider(SharedClients.passClient());
+            roles = new AuthRolesProvider(SharedClients.passClient());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static java.util.Optional.ofNullable;
+import static org.dataconservancy.pass.authz.ConfigUtil.getValue;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.CONFIG_SHIB_USE_HEADERS;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Reads Shibboleth attributes from requests.
+ * <p>
+ * Shibboleth passes attributes as request attributes. If {@value ShibAuthUserProvider#CONFIG_SHIB_USE_HEADERS} is
+ * true, a header of the same name is used instead of any attribute that is missing. Clients can send any header they
+ * like, so this is only safe where something in front of the application removes them.
+ * </p>
+ */
+public class ShibAttributes {
+
+    private ShibAttributes() {
+    }
+
+    /**
+     * @return true if headers are to be used for missing attributes, as configured.
+     */
+    public static boolean useShibHeaders() {
+        return ofNullable(getValue(CONFIG_SHIB_USE_HEADERS)).map(Boolean::valueOf).orElse(false);
+    }
+
+    /**
+     * Get the value of a Shibboleth attribute.
+     *
+     * @param request The request.
+     * @param name Name of the attribute.
+     * @param useHeaders Whether to use a header if there is no attribute.
+     * @return The value, or null if there is none.
+     */
+    public static String shibAttribute(HttpServletRequest request, String name, boolean useHeaders) {
+        final Object value = request.getAttribute(name);
+        if (value != null) {
+            return value.toString();
+        }
+        return useHeaders ? request.getHeader(name) : null;
+    }
+}
@@ -19,7 +19,7 @@ package org.dataconservancy.pass.authz;
 import static java.util.Arrays.stream;
 import static java.util.Optional.ofNullable;
 import static java.util.stream.Collectors.toSet;
-import static org.dataconservancy.pass.authz.ConfigUtil.getValue;
+import static org.dataconservancy.pass.authz.ShibAttributes.shibAttribute;
 
 import java.net.URI;
 import java.time.Duration;
@@ -43,6 +43,10 @@ import org.slf4j.LoggerFactory;
  * <li>Unscoped-Affiliations - a semi-colon-separated list of roles or statuses indicating employment type</li>
  * <li>Employeenumber - the user's employee id, durable across institutional id changes</li>
  * </ul>
+ * <p>
+ * Eligibility and PASS roles are decided by an {@link EligibilityPolicy}, by default one that considers users with
+ * a FACULTY affiliation eligible.
+ * </p>
  *
  * @author apb@jhu.edu
  * @author jrm@jhu.edu
@@ -71,18 +75,22 @@ public class ShibAuthUserProvider implements AuthUserProvider {
 
     final ExpiringLRUCache<String, URI> userCache;
 
-    boolean useShibHeaders = ofNullable(getValue(CONFIG_SHIB_USE_HEADERS)).map(Boolean::valueOf).orElse(false);
+    final EligibilityPolicy policy;
 
-    boolean isFaculty = false;
+    boolean useShibHeaders = ShibAttributes.useShibHeaders();
 
     public ShibAuthUserProvider(PassClient client) {
-        this.passClient = client;
-        userCache = new ExpiringLRUCache<>(100, Duration.ofMinutes(10));
+        this(client, ExpiringLRUCache.named("users", 100, Duration.ofMinutes(10)));
     }
 
     public ShibAuthUserProvider(PassClient client, ExpiringLRUCache<String, URI> cache) {
+        this(client, cache, EligibilityPolicy.fromConfig());
+    }
+
+    public ShibAuthUserProvider(PassClient client, ExpiringLRUCache<String, URI> cache, EligibilityPolicy policy) {
         this.passClient = client;
-        userCache = cache;
+        this.userCache = cache;
+        this.policy = policy;
     }
 
     /**
@@ -95,8 +103,6 @@ public class ShibAuthUserProvider implements AuthUserProvider {
     @Override
     public AuthUser getUser(HttpServletRequest request) {
 
-        boolean isFaculty = false;
-
         if (LOG.isDebugEnabled()) {
 
             LOG.debug("Request headers: ");
@@ -112,16 +118,7 @@ public class ShibAuthUserProvider implements AuthUserProvider {
         final String institutionalId = getShibAttr(request, EPPN_HEADER, s -> s.split("@")[0]);
         final String employeeId = getShibAttr(request, EMPLOYEE_ID, e -> e);
 
-        final String[] affiliationArray = getShibAttr(request, UNSCOPED_AFFILIATION_HEADER, s -> s.split(";"));
-
-        if (affiliationArray != null) {
-            for (final String affiliation : affiliationArray) {
-                if (affiliation.trim().equalsIgnoreCase(FACULTY_AFFILIATION)) {
-                    isFaculty = true;
-                    break;
-                }
-            }
-        }
+        final AttributeRules.Source attrs = policy.resolve(name -> getShibAttr(request, name, s -> s));
 
         URI id = null;
         if (employeeId != null) {
@@ -131,8 +128,8 @@ public class ShibAuthUserProvider implements AuthUserProvider {
                         () -> passClient.findByAttribute(User.class, "localKey", employeeId));
                 LOG.debug("User resource for {} is {}", employeeId, id);
             } catch (final Exception e) {
-                LOG.warn("Error looking up user with employee id " + employeeId,
-                        e);
+                // Not finding the user is not the same as the user not existing
+                throw new RuntimeException("Error looking up user with employee id " + employeeId, e);
             }
         } else {
             LOG.debug("No shibboleth employee id; skipping user lookup ");
@@ -146,7 +143,8 @@ public class ShibAuthUserProvider implements AuthUserProvider {
         if (institutionalId != null) {
             user.setInstitutionalId(institutionalId.toLowerCase());// this is our normal format
         }
-        user.setFaculty(isFaculty);
+        user.setFaculty(policy.isEligible(attrs));
+        user.getUserRoles().addAll(policy.getRoles(attrs));
         user.setId(id);
         user.setPrincipal(getShibAttr(request, EPPN_HEADER, s -> s));
 
@@ -164,10 +162,14 @@ public class ShibAuthUserProvider implements AuthUserProvider {
         return user;
     }
 
+    @Override
+    public boolean isCached(HttpServletRequest request) {
+        final String employeeId = getShibAttr(request, EMPLOYEE_ID, e -> e);
+        return employeeId == null || userCache.isCached(employeeId);
+    }
+
     private <T> T getShibAttr(HttpServletRequest request, String name, Function<String, T> transform) {
-        final T value = transform(ofNullable(request.getAttribute(name))
-                .map(Object::toString)
-                .orElse(useShibHeaders ? request.getHeader(name) : null), transform);
+        final T value = transform(shibAttribute(request, name, useShibHeaders), transform);
 
         LOG.debug("Shib attribute {} is {}", name, value);
         return value;
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static org.dataconservancy.pass.authz.ACLManager.onErrorThrow;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.fcrepo.client.FcrepoClient;
+import org.fcrepo.client.FcrepoOperationFailedException;
+import org.fcrepo.client.FcrepoResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Fedora 4 transaction.
+ * <p>
+ * Requests made to a resource's URI {@link #in(URI) within} the transaction are not visible outside of it until it
+ * is committed, and are discarded if it is rolled back. {@link #NONE} represents working outside of any transaction.
+ * </p>
+ */
+class Transaction {
+
+    static final Logger LOG = LoggerFactory.getLogger(Transaction.class);
+
+    /** No transaction; URIs are used as-is and commit and rollback do nothing */
+    static final Transaction NONE = new Transaction(null, null, null);
+
+    private final FcrepoClient repo;
+
+    private final String base;
+
+    private final String tx;
+
+    private Transaction(FcrepoClient repo, String base, String tx) {
+        this.repo = repo;
+        this.base = base;
+        this.tx = tx;
+    }
+
+    /**
+     * Start a new transaction.
+     *
+     * @param repo Repository client.
+     * @param base Repository base URI.
+     * @return the transaction.
+     */
+    static Transaction begin(FcrepoClient repo, URI base) {
+        final String baseUri = base.toString().endsWith("/") ? base.toString() : base.toString() + "/";
+        try (FcrepoResponse response = repo.post(URI.create(baseUri + "fcr:tx")).perform()) {
+            onErrorThrow(response, "Error starting transaction");
+            final String tx = response.getLocation().toString();
+            LOG.debug("Started transaction <{}>", tx);
+            return new Transaction(repo, baseUri, tx.endsWith("/") ? tx : tx + "/");
+        } catch (FcrepoOperationFailedException | IOException e) {
+            throw new RuntimeException("Error connecting to the repository", e);
+        }
+    }
+
+    /**
+     * @return true if this is an actual transaction, rather than {@link #NONE}.
+     */
+    boolean isActive() {
+        return tx != null;
+    }
+
+    /**
+     * Get the URI through which a repository resource is accessed in this transaction.
+     *
+     * @param uri Resource URI
+     * @return URI within the transaction
+     */
+    URI in(URI uri) {
+        if (tx != null && uri.toString().startsWith(base) && !uri.toString().startsWith(tx)) {
+            return URI.create(tx + uri.toString().substring(base.length()));
+        }
+        return uri;
+    }
+
+    /**
+     * Get the URI of a repository resource, as it is known outside the transaction.
+     *
+     * @param uri URI within the transaction.
+     * @return URI outside the transaction.
+     */
+    URI out(URI uri) {
+        if (tx != null && uri.toString().startsWith(tx)) {
+            return URI.create(base + uri.toString().substring(tx.length()));
+        }
+        return uri;
+    }
+
+    /**
+     * Commit the transaction.
+     */
+    void commit() {
+        if (tx != null) {
+            LOG.debug("Committing transaction <{}>", tx);
+            post(tx + "fcr:tx/fcr:commit", "Error committing transaction <%s>");
+        }
+    }
+
+    /**
+     * Roll back the transaction. Failures are logged rather than thrown, since this is done when handling some other
+     * error.
+     */
+    void rollback() {
+        if (tx != null) {
+            LOG.debug("Rolling back transaction <{}>", tx);
+            try {
+                post(tx + "fcr:tx/fcr:rollback", "Error rolling back transaction <%s>");
+            } catch (final Exception e) {
+                LOG.warn("Could not roll back transaction <{}>", tx, e);
+            }
+        }
+    }
+
+    private void post(String uri, String message) {
+        try (FcrepoResponse response = repo.post(URI.create(uri)).perform()) {
+            onErrorThrow(response, message, tx);
+        } catch (FcrepoOperationFailedException | IOException e) {
+            throw new RuntimeException("Error connecting to the repository", e);
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.unmodifiableMap;
+import static org.dataconservancy.pass.authz.Digests.sha256Hex;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory index of the authorizations in the repository's ACLs, answering WebAC access questions without asking
+ * the repository.
+ * <p>
+ * Authorizations are compiled into a map from resource to role to granted modes, so {@link #isAuthorized(Collection,
+ * URI, Mode)} is a couple of hash lookups. As in the repository, only the ACL a resource is {@link #link(URI, URI)
+ * linked} to applies to it: its <code>acl:accessTo</code> authorizations naming the resource, and its
+ * <code>acl:accessToClass</code> authorizations, as in the shared ACLs written by
+ * {@link ACLManager#sharePermissions(URI)}. The index cannot discover links from the ACLs themselves. Until a
+ * resource's link is known, any ACL naming it with <code>acl:accessTo</code> applies, since {@link ACLManager} links
+ * every ACL it writes to the resources it names.
+ * </p>
+ * <p>
+ * This is a model of what {@link ACLManager} writes, not a complete WebAC implementation: ACLs inherited from parent
+ * resources are not considered, and every <code>acl:accessToClass</code> is assumed to match every linked resource.
+ * Lookups never block. Updates are serialized, and each resource's entry is replaced as a whole, so a lookup sees a
+ * resource's permissions either before or after an update to them, never partially updated.
+ * </p>
+ * <p>
+ * The grants are also indexed by role, so {@link #resources(Collection, Mode)} can answer which resources a user may
+ * access. {@link AclIndexer} keeps an index up to date as ACLs change.
+ * </p>
+ */
+public class WebAcIndex {
+
+    static final Logger LOG = LoggerFactory.getLogger(WebAcIndex.class);
+
+    /**
+     * WebAC access modes.
+     */
+    public enum Mode {
+        READ, WRITE, APPEND;
+
+        final int bit = 1 << ordinal();
+    }
+
+    /* Guards the authorization maps below, which are only used when updating */
+    private final Object updates = new Object();
+
+    /* ACL -> its authorizations */
+    private final Map<URI, Collection<Authorization>> acls = new HashMap<>();
+
+    /* resource -> ACLs with authorizations having accessTo that resource */
+    private final Map<URI, Set<URI>> aclsByResource = new HashMap<>();
+
+    /* resource -> ACL -> role -> modes bitmask, from accessTo. Values are never modified. */
+    private final Map<URI, Map<URI, Map<URI, Integer>>> byResource = new ConcurrentHashMap<>();
+
+    /* ACL -> role -> modes bitmask, from accessToClass. Values are never modified. */
+    private final Map<URI, Map<URI, Integer>> byClass = new ConcurrentHashMap<>();
+
+    /* ACL -> checksum of its authorizations */
+    private final Map<URI, String> checksums = new HashMap<>();
+
+    /* Links to this are resources known to have no ACL */
+    private static final URI NO_ACL = URI.create("urn:x-pass-authz:no-acl");
+
+    /* resource -> linked ACL, or NO_ACL */
+    private final Map<URI, URI> links = new ConcurrentHashMap<>();
+
+    /* ACL -> resources linked to it */
+    private final Map<URI, Set<URI>> linked = new ConcurrentHashMap<>();
+
+    /* role -> resource -> modes bitmask, from accessTo in any ACL */
+    private final Map<URI, Map<URI, Integer>> byRole = new ConcurrentHashMap<>();
+
+    /**
+     * Build an index from every ACL in a container.
+     *
+     * @param reader Reads ACLs from the repository.
+     * @param aclContainer Container of ACLs, e.g. the {@link ACLManager} ACL base.
+     * @return The index.
+     */
+    public static WebAcIndex load(AclReader reader, URI aclContainer) {
+        final long start = System.currentTimeMillis();
+        final WebAcIndex index = new WebAcIndex();
+
+        for (final URI acl : reader.children(aclContainer)) {
+            index.putAcl(acl, reader.read(acl));
+        }
+
+        LOG.info("Indexed {} ACLs in {} ms", index.size(), System.currentTimeMillis() - start);
+        return index;
+    }
+
+    /**
+     * Determine if any of the given roles may access a resource in the given mode.
+     *
+     * @param roles The roles.
+     * @param resource The resource.
+     * @param mode The access mode.
+     * @return true if authorized.
+     */
+    public boolean isAuthorized(Collection<URI> roles, URI resource, Mode mode) {
+        final Map<URI, Map<URI, Integer>> grants = byResource.getOrDefault(resource, emptyMap());
+
+        final URI acl = links.get(resource);
+        if (acl == null) {
+            for (final Map<URI, Integer> aclGrants : grants.values()) {
+                if (granted(aclGrants, roles, mode)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        return granted(grants.get(acl), roles, mode) || granted(byClass.get(acl), roles, mode);
+    }
+
+    /**
+     * Find every resource that any of the given roles may access in the given mode.
+     *
+     * @param roles The roles.
+     * @param mode The access mode.
+     * @return The resources.
+     */
+    public Set<URI> resources(Collection<URI> roles, Mode mode) {
+        final Set<URI> resources = new HashSet<>();
+
+        for (final URI role : roles) {
+            byRole.getOrDefault(role, emptyMap()).forEach((resource, modes) -> {
+                if ((modes & mode.bit) != 0 && isAuthorized(roles, resource, mode)) {
+                    resources.add(resource);
+                }
+            });
+        }
+
+        byClass.forEach((acl, grants) -> {
+            if (granted(grants, roles, mode)) {
+                resources.addAll(linked.getOrDefault(acl, emptySet()));
+            }
+        });
+
+        return resources;
+    }
+
+    /**
+     * Add or replace the authorizations in an ACL.
+     *
+     * @param acl The ACL.
+     * @param authorizations Its authorizations.
+     */
+    public void putAcl(URI acl, Collection<Authorization> authorizations) {
+        synchronized (updates) {
+            final Collection<Authorization> previous = acls.getOrDefault(acl, emptyList());
+            acls.put(acl, new ArrayList<>(authorizations));
+            checksums.put(acl, checksum(authorizations));
+
+            final Set<URI> affected = new HashSet<>();
+            for (final Authorization auth : previous) {
+                for (final URI resource : auth.accessTo) {
+                    affected.add(resource);
+                    aclsByResource.computeIfPresent(resource, (r, a) -> {
+                        a.remove(acl);
+                        return a.isEmpty() ? null : a;
+                    });
+                }
+            }
+
+            final Map<URI, Integer> classGrants = new HashMap<>();
+            for (final Authorization auth : authorizations) {
+                for (final URI resource : auth.accessTo) {
+                    affected.add(resource);
+                    aclsByResource.computeIfAbsent(resource, r -> new HashSet<>()).add(acl);
+                }
+                if (!auth.accessToClass.isEmpty()) {
+                    grant(classGrants, auth);
+                }
+            }
+
+            if (classGrants.isEmpty()) {
+                byClass.remove(acl);
+            } else {
+                byClass.put(acl, unmodifiableMap(classGrants));
+            }
+
+            affected.forEach(this::compile);
+        }
+    }
+
+    /**
+     * Remove an ACL and its authorizations.
+     *
+     * @param acl The ACL.
+     */
+    public void removeAcl(URI acl) {
+        synchronized (updates) {
+            putAcl(acl, emptyList());
+            acls.remove(acl);
+            checksums.remove(acl);
+        }
+    }
+
+    /**
+     * Record the ACL a resource is linked to.
+     *
+     * @param resource The resource.
+     * @param acl Its ACL, or null if it has none.
+     */
+    public void link(URI resource, URI acl) {
+        synchronized (updates) {
+            unlink(resource, links.put(resource, acl != null ? acl : NO_ACL));
+            if (acl != null) {
+                linked.computeIfAbsent(acl, a -> ConcurrentHashMap.newKeySet()).add(resource);
+            }
+        }
+    }
+
+    /**
+     * Forget what a resource is linked to, e.g. once it has been deleted.
+     *
+     * @param resource The resource.
+     */
+    public void forget(URI resource) {
+        synchronized (updates) {
+            unlink(resource, links.remove(resource));
+        }
+    }
+
+    /* Remove a resource from those linked to its previous ACL, if any */
+    private void unlink(URI resource, URI previous) {
+        if (previous != null) {
+            linked.computeIfPresent(previous, (a, resources) -> {
+                resources.remove(resource);
+                return resources.isEmpty() ? null : resources;
+            });
+        }
+    }
+
+    /**
+     * @param resource A resource.
+     * @return true if the ACL linked to the resource, or that it has none, is known.
+     */
+    public boolean isLinked(URI resource) {
+        return links.containsKey(resource);
+    }
+
+    /**
+     * @param resource A resource.
+     * @return The ACL linked to the resource, or null if it has none or it is not known.
+     */
+    public URI linkedAcl(URI resource) {
+        final URI acl = links.get(resource);
+        return NO_ACL.equals(acl) ? null : acl;
+    }
+
+    /**
+     * @param acl An ACL.
+     * @return Every resource named in the ACL, or known to be linked to it.
+     */
+    public Set<URI> resourcesOf(URI acl) {
+        synchronized (updates) {
+            final Set<URI> resources = new HashSet<>(linked.getOrDefault(acl, emptySet()));
+            for (final Authorization auth : acls.getOrDefault(acl, emptyList())) {
+                resources.addAll(auth.accessTo);
+            }
+            return resources;
+        }
+    }
+
+    /**
+     * @return The ACLs in the index.
+     */
+    public Set<URI> acls() {
+        synchronized (updates) {
+            return new HashSet<>(acls.keySet());
+        }
+    }
+
+    /**
+     * @param acl An ACL.
+     * @return Checksum of the ACL's authorizations, as last indexed, or null if it is not in the index.
+     */
+    public String checksum(URI acl) {
+        synchronized (updates) {
+            return checksums.get(acl);
+        }
+    }
+
+    /**
+     * Compute a checksum of authorizations, independent of their order.
+     *
+     * @param authorizations The authorizations.
+     * @return Checksum
+     */
+    public static String checksum(Collection<Authorization> authorizations) {
+        final Set<String> canonical = new TreeSet<>();
+        for (final Authorization auth : authorizations) {
+            canonical.add(auth.uri + " " + new TreeSet<>(auth.accessTo) + " " + new TreeSet<>(auth.accessToClass) +
+                    " " + new TreeSet<>(auth.agents) + " " + new TreeSet<>(auth.modes));
+        }
+
+        final StringBuilder lines = new StringBuilder();
+        for (final String line : canonical) {
+            lines.append(line).append('\n');
+        }
+        return sha256Hex(lines.toString());
+    }
+
+    /**
+     * @return Number of ACLs in the index.
+     */
+    public int size() {
+        synchronized (updates) {
+            return acls.size();
+        }
+    }
+
+    /* Rebuild the grants on a resource from all ACLs that mention it */
+    private void compile(URI resource) {
+        final Map<URI, Map<URI, Integer>> byAcl = new HashMap<>();
+        final Map<URI, Integer> grants = new HashMap<>();
+        for (final URI acl : aclsByResource.getOrDefault(resource, emptySet())) {
+            final Map<URI, Integer> aclGrants = new HashMap<>();
+            for (final Authorization auth : acls.get(acl)) {
+                if (auth.accessTo.contains(resource)) {
+                    grant(aclGrants, auth);
+                }
+            }
+            if (!aclGrants.isEmpty()) {
+                byAcl.put(acl, unmodifiableMap(aclGrants));
+                aclGrants.forEach((role, modes) -> grants.merge(role, modes, (a, b) -> a | b));
+            }
+        }
+
+        final Map<URI, Map<URI, Integer>> previous = byAcl.isEmpty() ? byResource.remove(resource) : byResource.put(
+                resource, unmodifiableMap(byAcl));
+
+        final Set<URI> previousRoles = new HashSet<>();
+        if (previous != null) {
+            previous.values().forEach(aclGrants -> previousRoles.addAll(aclGrants.keySet()));
+        }
+
+        for (final URI role : previousRoles) {
+            if (!grants.containsKey(role)) {
+                byRole.computeIfPresent(role, (r, resources) -> {
+                    resources.remove(resource);
+                    return resources.isEmpty() ? null : resources;
+                });
+            }
+        }
+        grants.forEach((role, modes) -> byRole.computeIfAbsent(role, r -> new ConcurrentHashMap<>()).put(resource,
+                modes));
+    }
+
+    private static void grant(Map<URI, Integer> grants, Authorization auth) {
+        int modes = 0;
+        if (auth.modes.contains(Authorization.MODE_READ)) {
+            modes |= Mode.READ.bit;
+        }
+        if (auth.modes.contains(Authorization.MODE_WRITE)) {
+            // Write implies append
+            modes |= Mode.WRITE.bit | Mode.APPEND.bit;
+        }
+        if (auth.modes.contains(Authorization.MODE_APPEND)) {
+            modes |= Mode.APPEND.bit;
+        }
+
+        for (final URI agent : auth.agents) {
+            grants.merge(agent, modes, (a, b) -> a | b);
+        }
+    }
+
+    private static boolean granted(Map<URI, Integer> grants, Collection<URI> roles, Mode mode) {
+        if (grants == null) {
+            return false;
+        }
+
+        for (final URI role : roles) {
+            final Integer modes = grants.get(role);
+            if (modes != null && (modes & mode.bit) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singleton;
+import static org.dataconservancy.pass.authz.Authorization.MODE_READ;
+import static org.dataconservancy.pass.authz.RepositoryEvent.Type.CREATED;
+import static org.dataconservancy.pass.authz.RepositoryEvent.Type.DELETED;
+import static org.dataconservancy.pass.authz.RepositoryEvent.Type.UPDATED;
+import static org.dataconservancy.pass.authz.WebAcIndex.Mode.READ;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AclIndexerTest {
+
+    static final URI CONTAINER = URI.create("http://example.org/fcrepo/rest/acls");
+
+    static final URI ACL = URI.create(CONTAINER + "/ab/cd/ef/gh/acl1");
+
+    static final URI RESOURCE = URI.create("http://example.org/fcrepo/rest/submissions/1");
+
+    static final List<URI> ROLE = asList(URI.create("test:role"));
+
+    @Mock
+    AclReader reader;
+
+    @Mock
+    RepositoryEventSource events;
+
+    final WebAcIndex index = new WebAcIndex();
+
+    @Test
+    public void newAclTest() {
+        final AclIndexer toTest = new AclIndexer(index, reader, CONTAINER, events);
+        when(reader.readIfChanged(ACL, null)).thenReturn(read(auth(ACL + "/a", MODE_READ)));
+
+        toTest.handle(new RepositoryEvent(CREATED, ACL));
+
+        assertTrue(index.isAuthorized(ROLE, RESOURCE, READ));
+        assertEquals(singleton(RESOURCE), index.resources(ROLE, READ));
+    }
+
+    @Test
+    public void authorizationChangeTest() {
+        final AclIndexer toTest = new AclIndexer(index, reader, CONTAINER, events);
+        index.putAcl(ACL, emptyList());
+        when(reader.readIfChanged(ACL, null)).thenReturn(read(auth(ACL + "/a", MODE_READ)));
+
+        toTest.handle(new RepositoryEvent(CREATED, URI.create(ACL + "/a#hash")));
+
+        assertTrue(index.isAuthorized(ROLE, RESOURCE, READ));
+    }
+
+    @Test
+    public void deletedAclTest() {
+        final AclIndexer toTest = new AclIndexer(index, reader, CONTAINER, events);
+        index.putAcl(ACL, asList(auth(ACL + "/a", MODE_READ)));
+        when(reader.readIfChanged(ACL, null)).thenReturn(new AclReader.Read(null, null));
+
+        toTest.handle(new RepositoryEvent(DELETED, URI.create(ACL + "/a")));
+
+        assertFalse(index.isAuthorized(ROLE, RESOURCE, READ));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void unknownDeleteTest() {
+        final AclIndexer toTest = new AclIndexer(index, reader, CONTAINER, events);
+
+        toTest.handle(new RepositoryEvent(DELETED, ACL));
+
+        verify(reader, never()).readIfChanged(any(), any());
+    }
+
+    @Test
+    public void linkedResourceTest() {
+        final AclIndexer toTest = new AclIndexer(index, reader, CONTAINER, events);
+        final URI sharedAcl = URI.create(CONTAINER + "/shared-1");
+        final URI otherSharedAcl = URI.create(CONTAINER + "/shared-2");
+        index.link(RESOURCE, sharedAcl);
+        when(reader.linkedAcl(RESOURCE)).thenReturn(otherSharedAcl);
+
+        toTest.handle(new RepositoryEvent(UPDATED, RESOURCE));
+        index.putAcl(otherSharedAcl, asList(classAuth(otherSharedAcl + "/read")));
+        assertTrue(index.isAuthorized(ROLE, RESOURCE, READ));
+
+        toTest.handle(new RepositoryEvent(DELETED, RESOURCE));
+        assertFalse(index.isLinked(RESOURCE));
+        assertFalse(index.isAuthorized(ROLE, RESOURCE, READ));
+    }
+
+    @Test
+    public void reconcileTest() {
+        final AclIndexer toTest = new AclIndexer(index, reader, CONTAINER, events);
+        final URI newAcl = URI.create(CONTAINER + "/ij/kl/mn/op/acl2");
+        final URI deletedAcl = URI.create(CONTAINER + "/qr/st/uv/wx/acl3");
+        final URI sharedAcl = URI.create(CONTAINER + "/shared-1");
+        final URI otherResource = URI.create("http://example.org/fcrepo/rest/submissions/2");
+
+        final List<Authorization> unchanged = asList(auth(ACL + "/a", MODE_READ));
+        index.putAcl(ACL, unchanged);
+        index.putAcl(deletedAcl, asList(auth(deletedAcl + "/a", MODE_READ)));
+        index.putAcl(sharedAcl, asList(classAuth(sharedAcl + "/read")));
+        index.link(otherResource, sharedAcl);
+
+        when(reader.children(CONTAINER)).thenReturn(asList(ACL, newAcl, sharedAcl));
+        when(reader.readIfChanged(ACL, null)).thenReturn(new AclReader.Read(unchanged, "\"1\""));
+        when(reader.readIfChanged(newAcl, null)).thenReturn(new AclReader.Read(asList(auth(newAcl + "/a",
+                MODE_READ)), "\"2\""));
+        when(reader.readIfChanged(sharedAcl, null)).thenReturn(new AclReader.Read(asList(classAuth(sharedAcl +
+                "/read")), "\"3\""));
+        when(reader.linkedAcl(RESOURCE)).thenReturn(ACL);
+
+        // Two ACLs, and the link of the resource they name
+        assertEquals(3, toTest.reconcile());
+        assertEquals(3, index.size());
+        assertNull(index.checksum(deletedAcl));
+        assertEquals(ACL, index.linkedAcl(RESOURCE));
+
+        // Nothing changed, so no ACL is read again, and no link either
+        assertEquals(0, toTest.reconcile());
+        verify(reader).readIfChanged(ACL, "\"1\"");
+        verify(reader).readIfChanged(newAcl, "\"2\"");
+        verify(reader).readIfChanged(sharedAcl, "\"3\"");
+        verify(reader).linkedAcl(RESOURCE);
+        verify(reader, never()).linkedAcl(otherResource);
+    }
+
+    @Test
+    public void reconcileChangedAclTest() {
+        final AclIndexer toTest = new AclIndexer(index, reader, CONTAINER, events);
+        final URI sharedAcl = URI.create(CONTAINER + "/shared-1");
+        final URI otherSharedAcl = URI.create(CONTAINER + "/shared-2");
+
+        index.putAcl(sharedAcl, asList(classAuth(sharedAcl + "/read")));
+        index.link(RESOURCE, sharedAcl);
+
+        // Emptied, and the resource moved to another shared ACL, with the events missed
+        when(reader.children(CONTAINER)).thenReturn(asList(sharedAcl));
+        when(reader.readIfChanged(sharedAcl, null)).thenReturn(new AclReader.Read(emptyList(), "\"2\""));
+        when(reader.linkedAcl(RESOURCE)).thenReturn(otherSharedAcl);
+
+        assertEquals(2, toTest.reconcile());
+        assertEquals(otherSharedAcl, index.linkedAcl(RESOURCE));
+        assertFalse(index.isAuthorized(ROLE, RESOURCE, READ));
+    }
+
+    @Test
+    public void discoverLinksFromEventsTest() {
+        final AclIndexer toTest = new AclIndexer(index, reader, CONTAINER, events);
+        final URI sharedAcl = URI.create(CONTAINER + "/shared-1");
+        final URI otherResource = URI.create("http://example.org/fcrepo/rest/submissions/2");
+        final List<URI> sharedRole = asList(URI.create("test:sharedRole"));
+
+        final Authorization shared = classAuth(sharedAcl + "/read");
+        shared.agents.clear();
+        shared.agents.addAll(sharedRole);
+
+        when(reader.readIfChanged(ACL, null)).thenReturn(read(auth(ACL + "/a", MODE_READ)));
+        when(reader.readIfChanged(sharedAcl, null)).thenReturn(read(shared));
+        when(reader.linkedAcl(RESOURCE)).thenReturn(ACL, sharedAcl);
+        when(reader.linkedAcl(otherResource)).thenReturn(sharedAcl);
+
+        toTest.handle(new RepositoryEvent(CREATED, ACL));
+        toTest.handle(new RepositoryEvent(CREATED, RESOURCE));
+        assertTrue(index.isAuthorized(ROLE, RESOURCE, READ));
+
+        // Shared, so the resource's own ACL no longer applies
+        toTest.handle(new RepositoryEvent(CREATED, sharedAcl));
+        toTest.handle(new RepositoryEvent(UPDATED, RESOURCE));
+        toTest.handle(new RepositoryEvent(CREATED, otherResource));
+
+        assertFalse(index.isAuthorized(ROLE, RESOURCE, READ));
+        assertTrue(index.isAuthorized(sharedRole, RESOURCE, READ));
+        assertTrue(index.isAuthorized(sharedRole, otherResource, READ));
+        assertEquals(new HashSet<>(asList(RESOURCE, otherResource)), index.resources(sharedRole, READ));
+        assertTrue(index.resources(ROLE, READ).isEmpty());
+    }
+
+    static AclReader.Read read(Authorization... authorizations) {
+        return new AclReader.Read(asList(authorizations), null);
+    }
+
+    static Authorization auth(String uri, URI mode) {
+        final Authorization auth = new Authorization(URI.create(uri));
+        auth.accessTo.add(RESOURCE);
+        auth.agents.addAll(ROLE);
+        auth.modes.add(mode);
+        return auth;
+    }
+
+    static Authorization classAuth(String uri) {
+        final Authorization auth = new Authorization(URI.create(uri));
+        auth.accessToClass.add(URI.create("http://fedora.info/definitions/v4/repository#Resource"));
+        auth.agents.addAll(ROLE);
+        auth.modes.add(MODE_READ);
+        return auth;
+    }
+}
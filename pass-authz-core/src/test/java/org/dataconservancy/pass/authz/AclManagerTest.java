@@ -18,20 +18,48 @@ package org.dataconservancy.pass.authz;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.InputStream;
 import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.fcrepo.client.DeleteBuilder;
 import org.fcrepo.client.FcrepoClient;
 import org.fcrepo.client.FcrepoResponse;
 import org.fcrepo.client.GetBuilder;
+import org.fcrepo.client.HeadBuilder;
+import org.fcrepo.client.PatchBuilder;
+import org.fcrepo.client.PostBuilder;
+import org.fcrepo.client.PutBuilder;
 
 import org.dataconservancy.pass.authz.ACLManager.Builder;
+import org.dataconservancy.pass.authz.ACLManager.BulkResult;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
@@ -50,6 +78,24 @@ public class AclManagerTest {
     @Mock
     GetBuilder get;
 
+    @Mock
+    PostBuilder post;
+
+    @Mock
+    DeleteBuilder delete;
+
+    @Mock
+    HeadBuilder head;
+
+    @Mock
+    PutBuilder put;
+
+    @Mock
+    PatchBuilder patch;
+
+    @Captor
+    ArgumentCaptor<InputStream> bodyCaptor;
+
     @Test
     public void findAclTest() throws Exception {
 
@@ -65,6 +111,7 @@ public class AclManagerTest {
         final Builder builder = mgr.new Builder(RESOURCE, null);
         when(client.get(eq(RESOURCE))).thenReturn(get);
         when(get.accept("application/n-triples")).thenReturn(get);
+        when(get.preferMinimal()).thenReturn(get);
         when(get.perform()).thenReturn(response);
         when(response.getBody()).thenReturn(IOUtils.toInputStream(RDF, UTF_8));
         when(response.getStatusCode()).thenReturn(200);
@@ -72,4 +119,316 @@ public class AclManagerTest {
         assertEquals(ACL, builder.findOrCreateACL());
     }
 
+    @Test
+    public void cachedAclTest() throws Exception {
+
+        final URI ACL = URI.create("test:acl");
+
+        final String RDF = "<blah> <http://www.w3.org/ns/auth/acl#accessControl> <" + ACL + "> .\n";
+
+        final URI RESOURCE = URI.create("test:resource");
+        final ACLManager mgr = new ACLManager(client);
+
+        when(client.get(eq(RESOURCE))).thenReturn(get);
+        when(get.accept("application/n-triples")).thenReturn(get);
+        when(get.preferMinimal()).thenReturn(get);
+        when(get.perform()).thenReturn(response);
+        when(response.getBody()).thenReturn(IOUtils.toInputStream(RDF, UTF_8));
+        when(response.getStatusCode()).thenReturn(200);
+
+        assertEquals(ACL, mgr.new Builder(RESOURCE, null).findOrCreateACL());
+        assertEquals(ACL, mgr.new Builder(RESOURCE, null).findOrCreateACL());
+
+        verify(client, times(1)).get(eq(RESOURCE));
+    }
+
+    @Test
+    public void linkHeaderAclTest() throws Exception {
+
+        final URI ACL = URI.create("test:acl");
+        final URI RESOURCE = URI.create("test:resource");
+        final ACLManager mgr = new ACLManager(client);
+
+        when(client.get(eq(RESOURCE))).thenReturn(get);
+        when(get.accept("application/n-triples")).thenReturn(get);
+        when(get.preferMinimal()).thenReturn(get);
+        when(get.perform()).thenReturn(response);
+        when(response.getStatusCode()).thenReturn(200);
+        when(response.getLinkHeaders("acl")).thenReturn(Arrays.asList(ACL));
+
+        assertEquals(ACL, mgr.new Builder(RESOURCE, null).findOrCreateACL());
+        verify(response, times(0)).getBody();
+    }
+
+    @Test
+    public void batchedAuthorizationTest() throws Exception {
+        final URI ACL = URI.create("test:acl");
+        final URI RESOURCE = URI.create("test:resource");
+        final List<URI> ROLES = Arrays.asList(
+                URI.create("test:role1"),
+                URI.create("test:role2"),
+                URI.create("test:role3"),
+                URI.create("test:role4"),
+                URI.create("test:role5"));
+
+        final ExpiringLRUCache<URI, URI> cache = new ExpiringLRUCache<>(10, Duration.ofMinutes(1));
+        cache.put(RESOURCE, ACL);
+        final ACLManager mgr = new ACLManager(client, cache);
+
+        when(client.post(eq(ACL))).thenReturn(post);
+        when(post.body(any(InputStream.class), eq("text/turtle"))).thenReturn(post);
+        when(post.perform()).thenReturn(response);
+        when(response.getStatusCode()).thenReturn(201);
+
+        assertEquals(ACL, mgr.addPermissions(RESOURCE).grantRead(ROLES).grantWrite(ROLES).perform());
+
+        verify(client, times(1)).post(eq(ACL));
+        verify(post).body(bodyCaptor.capture(), eq("text/turtle"));
+
+        final String body = IOUtils.toString(bodyCaptor.getValue(), UTF_8);
+        for (final URI role : ROLES) {
+            assertTrue(body.contains("<" + role + ">"));
+        }
+        assertTrue(body.contains("acl:Read"));
+        assertTrue(body.contains("acl:Write"));
+    }
+
+    @Test
+    public void bulkPartialFailureTest() throws Exception {
+        final URI ROLE = URI.create("test:role");
+        final List<URI> RESOURCES = Arrays.asList(
+                URI.create("test:resource1"),
+                URI.create("test:resource2"),
+                URI.create("test:resource3"));
+
+        final ExpiringLRUCache<URI, URI> cache = new ExpiringLRUCache<>(10, Duration.ofMinutes(1));
+        for (final URI resource : RESOURCES) {
+            cache.put(resource, URI.create(resource + "/acl"));
+        }
+        final ACLManager mgr = new ACLManager(client, cache);
+
+        final URI BAD_ACL = URI.create(RESOURCES.get(2) + "/acl");
+        final PostBuilder badPost = mock(PostBuilder.class);
+        final FcrepoResponse badResponse = mock(FcrepoResponse.class);
+
+        when(client.post(any(URI.class))).thenAnswer(i -> BAD_ACL.equals(i.getArgument(0)) ? badPost : post);
+        when(post.body(any(InputStream.class), eq("text/turtle"))).thenReturn(post);
+        when(post.perform()).thenReturn(response);
+        when(response.getStatusCode()).thenReturn(201);
+        when(badPost.body(any(InputStream.class), eq("text/turtle"))).thenReturn(badPost);
+        when(badPost.perform()).thenReturn(badResponse);
+        when(badResponse.getStatusCode()).thenReturn(500);
+        when(badResponse.getBody()).thenReturn(IOUtils.toInputStream("oops", UTF_8));
+
+        final BulkResult result = mgr.addPermissions(RESOURCES)
+                .grantRead(Arrays.asList(ROLE))
+                .concurrency(2)
+                .perform();
+
+        assertFalse(result.isSuccess());
+        assertEquals(2, result.getAcls().size());
+        assertEquals(URI.create(RESOURCES.get(0) + "/acl"), result.getAcls().get(RESOURCES.get(0)));
+        assertEquals(URI.create(RESOURCES.get(1) + "/acl"), result.getAcls().get(RESOURCES.get(1)));
+        assertEquals(1, result.getFailures().size());
+        assertTrue(result.getFailures().containsKey(RESOURCES.get(2)));
+    }
+
+    @Test
+    public void setPermissionsNoopTest() throws Exception {
+        final URI ACL = URI.create("test:acl");
+        final URI RESOURCE = URI.create("test:resource");
+        final URI ROLE = URI.create("test:role");
+
+        final String RDF = "<test:acl/a> <http://www.w3.org/ns/auth/acl#accessTo> <" + RESOURCE + "> .\n" +
+                "<test:acl/a> <http://www.w3.org/ns/auth/acl#agent> <" + ROLE + "> .\n" +
+                "<test:acl/a> <http://www.w3.org/ns/auth/acl#mode> <http://www.w3.org/ns/auth/acl#Read> .\n" +
+                "<test:acl/a> <http://www.w3.org/ns/auth/acl#mode> <http://www.w3.org/ns/auth/acl#Write> .\n";
+
+        final ExpiringLRUCache<URI, URI> cache = new ExpiringLRUCache<>(10, Duration.ofMinutes(1));
+        cache.put(RESOURCE, ACL);
+        final ACLManager mgr = new ACLManager(client, cache);
+
+        when(client.get(eq(ACL))).thenReturn(get);
+        when(get.accept("application/n-triples")).thenReturn(get);
+        when(get.preferRepresentation(anyList(), anyList())).thenReturn(get);
+        when(get.perform()).thenReturn(response);
+        when(response.getStatusCode()).thenReturn(200);
+        when(response.getBody()).thenReturn(IOUtils.toInputStream(RDF, UTF_8));
+
+        final List<URI> roles = Arrays.asList(ROLE);
+        assertEquals(ACL, mgr.setPermissions(RESOURCE).grantRead(roles).grantWrite(roles).perform());
+
+        verify(client, never()).post(any(URI.class));
+    }
+
+    @Test
+    public void setPermissionsRevokeTest() throws Exception {
+        final URI ACL = URI.create("test:acl");
+        final URI AUTHZ = URI.create("test:acl/a");
+        final URI RESOURCE = URI.create("test:resource");
+        final URI KEEP = URI.create("test:keep");
+        final URI DROP = URI.create("test:drop");
+
+        final String RDF = "<" + AUTHZ + "> <http://www.w3.org/ns/auth/acl#accessTo> <" + RESOURCE + "> .\n" +
+                "<" + AUTHZ + "> <http://www.w3.org/ns/auth/acl#agent> <" + KEEP + "> .\n" +
+                "<" + AUTHZ + "> <http://www.w3.org/ns/auth/acl#agent> <" + DROP + "> .\n" +
+                "<" + AUTHZ + "> <http://www.w3.org/ns/auth/acl#mode> <http://www.w3.org/ns/auth/acl#Read> .\n";
+
+        final ExpiringLRUCache<URI, URI> cache = new ExpiringLRUCache<>(10, Duration.ofMinutes(1));
+        cache.put(RESOURCE, ACL);
+        final ACLManager mgr = new ACLManager(client, cache);
+
+        when(client.get(eq(ACL))).thenReturn(get);
+        when(get.accept("application/n-triples")).thenReturn(get);
+        when(get.preferRepresentation(anyList(), anyList())).thenReturn(get);
+        when(get.perform()).thenReturn(response);
+        when(response.getStatusCode()).thenReturn(200);
+        when(response.getBody()).thenReturn(IOUtils.toInputStream(RDF, UTF_8));
+        when(client.delete(eq(AUTHZ))).thenReturn(delete);
+        when(delete.perform()).thenReturn(response);
+        when(client.post(eq(ACL))).thenReturn(post);
+        when(post.body(any(InputStream.class), eq("text/turtle"))).thenReturn(post);
+        when(post.perform()).thenReturn(response);
+
+        mgr.setPermissions(RESOURCE).grantRead(Arrays.asList(KEEP)).revokeOthers().perform();
+
+        verify(client).delete(eq(AUTHZ));
+        verify(post).body(bodyCaptor.capture(), eq("text/turtle"));
+
+        final String body = IOUtils.toString(bodyCaptor.getValue(), UTF_8);
+        assertTrue(body.contains("<" + KEEP + ">"));
+        assertFalse(body.contains("<" + DROP + ">"));
+    }
+
+    @Test
+    public void sharedAclNameTest() {
+        final ACLManager mgr = new ACLManager(client);
+        final URI ROLE_1 = URI.create("test:role1");
+        final URI ROLE_2 = URI.create("test:role2");
+
+        final URI acl = mgr.sharedAclFor(
+                new HashSet<>(Arrays.asList(ROLE_1, ROLE_2)),
+                new HashSet<>(Arrays.asList(ROLE_1)));
+
+        assertTrue(mgr.isSharedAcl(acl));
+        assertEquals(acl, mgr.sharedAclFor(
+                new HashSet<>(Arrays.asList(ROLE_2, ROLE_1)),
+                new HashSet<>(Arrays.asList(ROLE_1))));
+        assertNotEquals(acl, mgr.sharedAclFor(
+                new HashSet<>(Arrays.asList(ROLE_1)),
+                new HashSet<>(Arrays.asList(ROLE_1, ROLE_2))));
+    }
+
+    @Test
+    public void sharePermissionsTest() throws Exception {
+        final URI RESOURCE_1 = URI.create("test:resource1");
+        final URI RESOURCE_2 = URI.create("test:resource2");
+        final List<URI> ROLES = Arrays.asList(URI.create("test:role"));
+
+        final ACLManager mgr = new ACLManager(client);
+        final URI ACL = mgr.sharedAclFor(new HashSet<>(ROLES), new HashSet<>());
+
+        when(client.head(eq(ACL))).thenReturn(head);
+        when(head.perform()).thenReturn(response);
+        when(client.put(any(URI.class))).thenReturn(put);
+        when(put.body(any(InputStream.class), eq("text/turtle"))).thenReturn(put);
+        when(put.perform()).thenReturn(response);
+        when(client.patch(any(URI.class))).thenReturn(patch);
+        when(patch.body(any(InputStream.class))).thenReturn(patch);
+        when(patch.perform()).thenReturn(response);
+        when(response.getStatusCode()).thenReturn(404, 201);
+
+        assertEquals(ACL, mgr.sharePermissions(RESOURCE_1).grantRead(ROLES).perform());
+        assertEquals(ACL, mgr.sharePermissions(RESOURCE_2).grantRead(ROLES).perform());
+
+        // The shared ACL and its one authorization are only created once
+        verify(client, times(1)).head(eq(ACL));
+        verify(client).put(eq(ACL));
+        verify(client).put(eq(URI.create(ACL + "/read")));
+        verify(client).patch(eq(RESOURCE_1));
+        verify(client).patch(eq(RESOURCE_2));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void addToSharedAclTest() throws Exception {
+        final URI RESOURCE = URI.create("test:resource");
+        final List<URI> ROLES = Arrays.asList(URI.create("test:role"));
+
+        final ExpiringLRUCache<URI, URI> cache = new ExpiringLRUCache<>(10, Duration.ofMinutes(1));
+        final ACLManager mgr = new ACLManager(client, cache);
+        cache.put(RESOURCE, mgr.sharedAclFor(new HashSet<>(ROLES), new HashSet<>()));
+
+        mgr.addPermissions(RESOURCE).grantWrite(ROLES).perform();
+    }
+
+    @Test
+    public void concurrentCreateTest() throws Exception {
+        final URI ACL = URI.create("test:acl");
+        final URI RESOURCE = URI.create("test:resource");
+        final List<URI> ROLES = Arrays.asList(URI.create("test:role"));
+
+        final ACLManager mgr = new ACLManager(client);
+
+        when(client.get(eq(RESOURCE))).thenReturn(get);
+        when(get.accept("application/n-triples")).thenReturn(get);
+        when(get.preferMinimal()).thenReturn(get);
+        when(get.perform()).thenAnswer(i -> {
+            // Make it likely that others try to find the ACL at the same time
+            Thread.sleep(50);
+            return response;
+        });
+        when(response.getBody()).thenAnswer(i -> IOUtils.toInputStream("", UTF_8));
+        when(response.getStatusCode()).thenReturn(201);
+        when(response.getLocation()).thenReturn(ACL);
+        when(client.post(any(URI.class))).thenReturn(post);
+        when(post.body(any(InputStream.class), eq("text/turtle"))).thenReturn(post);
+        when(post.perform()).thenReturn(response);
+        when(client.patch(eq(RESOURCE))).thenReturn(patch);
+        when(patch.body(any(InputStream.class))).thenReturn(patch);
+        when(patch.perform()).thenReturn(response);
+
+        final ExecutorService exe = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<URI>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(exe.submit(() -> mgr.addPermissions(RESOURCE).grantRead(ROLES).perform()));
+            }
+            for (final Future<URI> result : results) {
+                assertEquals(ACL, result.get());
+            }
+        } finally {
+            exe.shutdownNow();
+        }
+
+        // Only one of them looked for, created, and linked an ACL
+        verify(client, times(1)).get(eq(RESOURCE));
+        verify(client, times(1)).patch(eq(RESOURCE));
+    }
+
+    @Test
+    public void performAsyncTest() throws Exception {
+        final URI ACL = URI.create("test:acl");
+        final URI RESOURCE = URI.create("test:resource");
+        final List<URI> ROLES = Arrays.asList(URI.create("test:role"));
+
+        final ExpiringLRUCache<URI, URI> cache = new ExpiringLRUCache<>(10, Duration.ofMinutes(1));
+        cache.put(RESOURCE, ACL);
+        final ACLManager mgr = new ACLManager(client, cache);
+
+        when(client.post(eq(ACL))).thenReturn(post);
+        when(post.body(any(InputStream.class), eq("text/turtle"))).thenReturn(post);
+        when(post.perform()).thenReturn(response);
+        when(response.getStatusCode()).thenReturn(201, 500);
+        when(response.getBody()).thenReturn(IOUtils.toInputStream("oops", UTF_8));
+
+        assertEquals(ACL, mgr.addPermissions(RESOURCE).grantRead(ROLES).performAsync().get());
+
+        try {
+            mgr.addPermissions(RESOURCE).grantRead(ROLES).performAsync().get();
+            fail("Should have failed");
+        } catch (final ExecutionException e) {
+            // The failed resource's ACL is looked up again next time
+            assertEquals(null, cache.get(RESOURCE));
+        }
+    }
 }
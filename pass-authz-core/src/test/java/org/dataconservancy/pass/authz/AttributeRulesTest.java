@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static java.util.Arrays.asList;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.EMPLOYEE_ID;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.EPPN_HEADER;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.SCOPED_AFFILIATION_HEADER;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.UNSCOPED_AFFILIATION_HEADER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AttributeRulesTest {
+
+    final Map<String, String> attrs = new HashMap<>();
+
+    @Before
+    public void setUp() {
+        attrs.put(UNSCOPED_AFFILIATION_HEADER, "STAFF; faculty ;DEAN");
+        attrs.put(SCOPED_AFFILIATION_HEADER, "staff@jhu.edu;Faculty@med.jhu.edu");
+        attrs.put(EPPN_HEADER, "bcow666@jhu.edu");
+        attrs.put(EMPLOYEE_ID, "12345678");
+    }
+
+    @Test
+    public void affiliationTest() {
+        assertTrue(matches("affiliation:FACULTY"));
+        assertTrue(matches("affiliation:student, affiliation:dean"));
+        assertFalse(matches("affiliation:STUDENT"));
+    }
+
+    @Test
+    public void scopedAffiliationTest() {
+        assertTrue(matches("scoped:faculty@med.jhu.edu"));
+        assertTrue(matches("scoped:*@med.jhu.edu"));
+        assertTrue(matches("scoped:staff@*"));
+        assertFalse(matches("scoped:faculty@jhu.edu"));
+    }
+
+    @Test
+    public void domainTest() {
+        assertTrue(matches("domain:jhu.edu"));
+        assertTrue(matches("domain:MED.jhu.edu"));
+        assertTrue(matches("domain:.jhu.edu"));
+        assertFalse(matches("domain:apl.org"));
+        assertFalse(matches("domain:.hu.edu"));
+    }
+
+    @Test
+    public void attributePatternTest() {
+        assertTrue(matches("attr:Employeenumber=12345678"));
+        assertTrue(matches("attr:Employeenumber=1234*"));
+        assertTrue(matches("attr:Employeenumber=*678"));
+        assertTrue(matches("attr:Employeenumber=*456*"));
+        assertTrue(matches("attr:Eppn=*"));
+        assertFalse(matches("attr:Employeenumber=9*"));
+        assertFalse(matches("attr:Nonexistent=*"));
+    }
+
+    @Test
+    public void conjunctionTest() {
+        assertTrue(matches("affiliation:FACULTY & domain:jhu.edu"));
+        assertFalse(matches("affiliation:FACULTY & domain:apl.org"));
+        assertTrue(matches("affiliation:FACULTY & domain:apl.org, scoped:staff@jhu.edu"));
+    }
+
+    @Test
+    public void emptyTest() {
+        assertFalse(matches(""));
+        assertFalse(matches(null));
+    }
+
+    @Test
+    public void attributesTest() {
+        assertEquals(new HashSet<>(asList(UNSCOPED_AFFILIATION_HEADER, EPPN_HEADER, SCOPED_AFFILIATION_HEADER,
+                EMPLOYEE_ID)), AttributeRules.compile(
+                        "affiliation:FACULTY & domain:jhu.edu, attr:Employeenumber=1234*").getAttributes());
+        assertTrue(AttributeRules.compile("").getAttributes().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badTypeTest() {
+        AttributeRules.compile("moo:cow");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badScopedTest() {
+        AttributeRules.compile("scoped:faculty");
+    }
+
+    boolean matches(String spec) {
+        return AttributeRules.compile(spec).matches(attrs::get);
+    }
+}
@@ -16,11 +16,27 @@
 
 package org.dataconservancy.pass.authz;
 
+import static java.lang.String.format;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.lang.management.ManagementFactory;
 import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dataconservancy.pass.authz.LookupCounts.Outcome;
+
+import javax.management.Attribute;
+import javax.management.ObjectName;
 
 import org.junit.Test;
 
@@ -83,4 +99,183 @@ public class ExpiringLRUCacheTest {
         assertEquals(1, executionCount.get());
 
     }
+
+    @Test
+    public void failedLoadTest() {
+        final ExpiringLRUCache<String, String> toTest = new ExpiringLRUCache<>(10, Duration.ofMinutes(1));
+
+        try {
+            toTest.getOrDo(KEY1, () -> {
+                throw new IllegalStateException("down");
+            });
+            fail("Should have thrown an exception");
+        } catch (final IllegalStateException e) {
+            assertEquals("down", e.getMessage());
+        }
+
+        assertFalse(toTest.isCached(KEY1));
+        assertEquals(VALUE1, toTest.getOrDo(KEY1, () -> VALUE1));
+        assertEquals(2, toTest.getLoads());
+    }
+
+    @Test
+    public void putAndRemoveTest() {
+        final ExpiringLRUCache<String, String> toTest = new ExpiringLRUCache<>(10, Duration.ofSeconds(1));
+
+        toTest.put(KEY1, VALUE1);
+        assertEquals(VALUE1, toTest.get(KEY1));
+        assertEquals(VALUE1, toTest.getOrDo(KEY1, () -> VALUE2));
+
+        toTest.put(KEY1, VALUE2);
+        assertEquals(VALUE2, toTest.get(KEY1));
+
+        toTest.remove(KEY1);
+        assertNull(toTest.get(KEY1));
+    }
+
+    @Test
+    public void lookupCountsTest() {
+        final ExpiringLRUCache<String, String> toTest = new ExpiringLRUCache<>(10, Duration.ofSeconds(1));
+
+        LookupCounts.reset();
+        toTest.getOrDo(KEY1, () -> VALUE1);
+        toTest.getOrDo(KEY1, () -> VALUE1);
+        toTest.getOrDo(KEY2, () -> VALUE2);
+
+        assertEquals(2, LookupCounts.get(Outcome.LOAD));
+        assertEquals(1, LookupCounts.get(Outcome.HIT));
+        assertEquals(0, LookupCounts.get(Outcome.WAIT));
+
+        LookupCounts.reset();
+        assertEquals(0, LookupCounts.get(Outcome.LOAD));
+    }
+
+    @Test
+    public void shrinkCapacityTest() {
+        final ExpiringLRUCache<String, String> toTest = new ExpiringLRUCache<>(10, Duration.ofMinutes(1));
+
+        toTest.put(KEY1, VALUE1);
+        toTest.put(KEY2, VALUE2);
+        toTest.put(KEY3, VALUE3);
+
+        toTest.setCapacity(2);
+        assertEquals(2, toTest.getSize());
+        assertNull(toTest.get(KEY1));
+        assertEquals(VALUE3, toTest.get(KEY3));
+
+        toTest.put(KEY1, VALUE1);
+        assertNull(toTest.get(KEY2));
+    }
+
+    @Test
+    public void changeExpiryTest() {
+        final AtomicLong time = new AtomicLong();
+        final ExpiringLRUCache<String, String> toTest = new ExpiringLRUCache<>(10, Duration.ofSeconds(1),
+                Duration.ZERO, 1, time::get);
+
+        toTest.put(KEY1, VALUE1);
+        toTest.setExpirySeconds(60);
+        time.set(1200);
+        assertEquals(VALUE1, toTest.get(KEY1));
+
+        toTest.setExpirySeconds(1);
+        assertNull(toTest.get(KEY1));
+    }
+
+    @Test
+    public void lowerExpiryTest() {
+        final AtomicLong time = new AtomicLong();
+        final ExpiringLRUCache<String, String> toTest = new ExpiringLRUCache<>(10, Duration.ofMinutes(1),
+                Duration.ZERO, 1, time::get);
+
+        toTest.put(KEY1, VALUE1);
+        toTest.setExpirySeconds(1);
+
+        // Too young to be evicted when the expiry was lowered, but must not live for the old expiry
+        assertEquals(VALUE1, toTest.get(KEY1));
+        time.set(1200);
+        assertFalse(toTest.isCached(KEY1));
+        assertNull(toTest.get(KEY1));
+        assertEquals(VALUE2, toTest.getOrDo(KEY1, () -> VALUE2));
+    }
+
+    @Test
+    public void refreshTest() throws Exception {
+        final ExpiringLRUCache<String, Integer> toTest = new ExpiringLRUCache<>(10, Duration.ofMinutes(1),
+                Duration.ofMillis(1), 2);
+        final AtomicInteger executionCount = new AtomicInteger(0);
+        final CountDownLatch refreshed = new CountDownLatch(1);
+
+        assertEquals(1, toTest.getOrDo(KEY1, executionCount::incrementAndGet).intValue());
+        Thread.sleep(10);
+
+        // The old value is returned while the new one loads
+        assertEquals(1, toTest.getOrDo(KEY1, () -> {
+            refreshed.countDown();
+            return executionCount.incrementAndGet();
+        }).intValue());
+
+        assertTrue(refreshed.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 50 && toTest.get(KEY1) != 2; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, toTest.get(KEY1).intValue());
+        assertEquals(1, toTest.getLoads());
+        assertEquals(1, toTest.getHits());
+    }
+
+    @Test
+    public void changeLoadersTest() {
+        final ExpiringLRUCache<String, String> toTest = new ExpiringLRUCache<>(10, Duration.ofMinutes(1));
+
+        toTest.setLoaders(40);
+        assertEquals(40, toTest.getLoaders());
+        toTest.setLoaders(2);
+        assertEquals(2, toTest.getLoaders());
+        assertEquals(VALUE1, toTest.getOrDo(KEY1, () -> VALUE1));
+    }
+
+    @Test
+    public void closeTest() throws Exception {
+        final ExpiringLRUCache<String, String> named = ExpiringLRUCache.named("closed", 10, Duration.ofMinutes(1));
+        named.put(KEY1, VALUE1);
+        named.close();
+
+        assertEquals(0, named.getSize());
+        assertTrue(named.scheduler.isShutdown());
+        assertTrue(named.runner.isShutdown());
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(ExpiringLRUCache
+                .objectName("closed"))));
+
+        final ExpiringLRUCache<String, String> again = ExpiringLRUCache.named("closed", 10, Duration.ofMinutes(1));
+        assertNotSame(named, again);
+        assertNull(again.get(KEY1));
+        again.close();
+    }
+
+    @Test
+    public void namedTest() throws Exception {
+        System.setProperty(format(ExpiringLRUCache.PROP_CAPACITY, "test"), "5");
+        System.setProperty(format(ExpiringLRUCache.PROP_REFRESH, "test"), "30");
+        try {
+            final ExpiringLRUCache<String, String> toTest = ExpiringLRUCache.named("test", 100,
+                    Duration.ofMinutes(2));
+
+            assertEquals(5, toTest.getCapacity());
+            assertEquals(120, toTest.getExpirySeconds());
+            assertEquals(30, toTest.getRefreshSeconds());
+
+            final ObjectName name = new ObjectName(ExpiringLRUCache.objectName("test"));
+            assertNotNull(ManagementFactory.getPlatformMBeanServer().getMBeanInfo(name));
+
+            ManagementFactory.getPlatformMBeanServer().setAttribute(name, new Attribute("Capacity", 3));
+            assertEquals(3, toTest.getCapacity());
+
+            // Asking for the same name again gets the same cache
+            assertSame(toTest, ExpiringLRUCache.named("test", 100, Duration.ofMinutes(5)));
+        } finally {
+            System.clearProperty(format(ExpiringLRUCache.PROP_CAPACITY, "test"));
+            System.clearProperty(format(ExpiringLRUCache.PROP_REFRESH, "test"));
+        }
+    }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.dataconservancy.pass.authz.GrantCoalescer.Batch;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class GrantCoalescerTest {
+
+    final Object SCOPE = new Object();
+
+    final URI RESOURCE_1 = URI.create("test:resource1");
+
+    final URI RESOURCE_2 = URI.create("test:resource2");
+
+    final URI ROLE_1 = URI.create("test:role1");
+
+    final URI ROLE_2 = URI.create("test:role2");
+
+    final List<Batch> written = new CopyOnWriteArrayList<>();
+
+    final ExecutorService writers = Executors.newFixedThreadPool(4);
+
+    @After
+    public void stopWriters() {
+        writers.shutdownNow();
+    }
+
+    @Test
+    public void mergeTest() throws Exception {
+        final GrantCoalescer toTest = new GrantCoalescer(Duration.ofMillis(100), writers);
+
+        final CompletableFuture<URI> first = toTest.submit(SCOPE, RESOURCE_1, asList(ROLE_1), emptyList(),
+                this::write);
+        final CompletableFuture<URI> second = toTest.submit(SCOPE, RESOURCE_1, asList(ROLE_1, ROLE_2), asList(
+                ROLE_2), this::write);
+        final CompletableFuture<URI> other = toTest.submit(SCOPE, RESOURCE_2, asList(ROLE_1), emptyList(),
+                this::write);
+
+        assertEquals(acl(RESOURCE_1), first.get());
+        assertEquals(acl(RESOURCE_1), second.get());
+        assertEquals(acl(RESOURCE_2), other.get());
+
+        // One write per resource
+        assertEquals(2, written.size());
+        final Batch merged = written.stream().filter(b -> b.resource.equals(RESOURCE_1)).findFirst().get();
+        assertEquals(new HashSet<>(asList(ROLE_1, ROLE_2)), merged.read);
+        assertEquals(new HashSet<>(asList(ROLE_2)), merged.write);
+    }
+
+    @Test
+    public void scopeTest() throws Exception {
+        final GrantCoalescer toTest = new GrantCoalescer(Duration.ofMillis(100), writers);
+        final Object otherScope = new Object();
+        final List<Batch> otherWritten = new CopyOnWriteArrayList<>();
+        final Function<Batch, URI> otherWriter = batch -> {
+            otherWritten.add(batch);
+            return acl(batch.resource);
+        };
+
+        // Merged with a grant from another writer in the same scope, but not with one in another scope
+        final CompletableFuture<URI> first = toTest.submit(SCOPE, RESOURCE_1, asList(ROLE_1), emptyList(),
+                this::write);
+        final CompletableFuture<URI> second = toTest.submit(SCOPE, RESOURCE_1, asList(ROLE_2), emptyList(),
+                otherWriter);
+        final CompletableFuture<URI> other = toTest.submit(otherScope, RESOURCE_1, asList(ROLE_2), emptyList(),
+                otherWriter);
+
+        toTest.flushAll(SCOPE);
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertEquals(1, written.size());
+        assertEquals(new HashSet<>(asList(ROLE_1, ROLE_2)), written.get(0).read);
+
+        assertEquals(acl(RESOURCE_1), other.get());
+        assertEquals(1, otherWritten.size());
+        assertEquals(new HashSet<>(asList(ROLE_2)), otherWritten.get(0).read);
+    }
+
+    @Test
+    public void orderTest() throws Exception {
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> grants = new CopyOnWriteArrayList<>();
+
+        final GrantCoalescer toTest = new GrantCoalescer(Duration.ofMillis(10), writers);
+        final Function<Batch, URI> writer = batch -> {
+            if (batch.resource.equals(RESOURCE_1) && batch.read.size() == 1) {
+                firstStarted.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            grants.add(batch.read.size());
+            return acl(batch.resource);
+        };
+
+        final CompletableFuture<URI> first = toTest.submit(SCOPE, RESOURCE_1, asList(ROLE_1), emptyList(), writer);
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+
+        // A second batch on the same resource waits, while another resource is written
+        final CompletableFuture<URI> second = toTest.submit(SCOPE, RESOURCE_1, asList(ROLE_1, ROLE_2), emptyList(),
+                writer);
+        assertEquals(acl(RESOURCE_2), toTest.submit(SCOPE, RESOURCE_2, asList(ROLE_1), emptyList(), writer).get());
+        assertFalse(second.isDone());
+
+        release.countDown();
+        assertEquals(acl(RESOURCE_1), first.get());
+        assertEquals(acl(RESOURCE_1), second.get());
+        assertEquals(asList(1, 1, 2), grants);
+    }
+
+    @Test
+    public void flushTest() throws Exception {
+        final GrantCoalescer toTest = new GrantCoalescer(Duration.ofHours(1), writers);
+
+        final CompletableFuture<URI> grant = toTest.submit(SCOPE, RESOURCE_1, asList(ROLE_1), emptyList(),
+                this::write);
+        assertFalse(grant.isDone());
+
+        toTest.close();
+        assertTrue(grant.isDone());
+        assertEquals(acl(RESOURCE_1), grant.get());
+        assertEquals(1, written.size());
+
+        try {
+            toTest.submit(SCOPE, RESOURCE_1, asList(ROLE_1), emptyList(), this::write);
+            fail("Should not accept grants once closed");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void failureTest() throws Exception {
+        final GrantCoalescer toTest = new GrantCoalescer(Duration.ofMillis(10), writers);
+        final Function<Batch, URI> writer = batch -> {
+            throw new RuntimeException("oops");
+        };
+
+        try {
+            toTest.submit(SCOPE, RESOURCE_1, asList(ROLE_1), emptyList(), writer).get();
+            fail("Should have failed");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("oops"));
+        }
+    }
+
+    URI write(Batch batch) {
+        written.add(batch);
+        return acl(batch.resource);
+    }
+
+    static URI acl(URI resource) {
+        return URI.create(resource + "/acl");
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class NTriplesReaderTest {
+
+    @Test
+    public void termsTest() throws Exception {
+        final String RDF = "# a comment\n" +
+                "\n" +
+                "<test:s> <test:p> \"say \\\"moo\\\"\"@en .\r\n" +
+                "_:b1 <test:p> \"5\"^^<http://www.w3.org/2001/XMLSchema#int> .\n" +
+                "this is not a triple\n" +
+                "<test:s> <test:p2> <test:o> .";
+
+        final NTriplesReader toTest = new NTriplesReader(new StringReader(RDF));
+
+        assertTrue(toTest.next());
+        assertEquals("test:s", toTest.subject());
+        assertTrue(toTest.predicateIs("test:p"));
+        assertTrue(toTest.objectIsLiteral());
+        assertEquals("say \"moo\"", toTest.object());
+
+        assertTrue(toTest.next());
+        assertEquals("_:b1", toTest.subject());
+        assertEquals("5", toTest.object());
+
+        assertTrue(toTest.next());
+        assertTrue(toTest.subjectIs("test:s"));
+        assertEquals("test:p2", toTest.predicate());
+        assertFalse(toTest.objectIsLiteral());
+        assertTrue(toTest.objectIs("test:o"));
+
+        assertFalse(toTest.next());
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.CONFIG_SHIB_USE_HEADERS;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SharedProvidersTest {
+
+    @After
+    public void tearDown() {
+        System.clearProperty(CONFIG_SHIB_USE_HEADERS);
+    }
+
+    @Test
+    public void sameConfigSharedTest() {
+        assertSame(SharedProviders.userProvider(), SharedProviders.userProvider());
+        assertSame(SharedProviders.rolesProvider(), SharedProviders.rolesProvider());
+    }
+
+    @Test
+    public void differentConfigNotSharedTest() {
+        System.setProperty(CONFIG_SHIB_USE_HEADERS, "false");
+        final ShibAuthUserProvider withoutHeaders = SharedProviders.userProvider();
+        final AuthRolesProvider rolesWithoutHeaders = SharedProviders.rolesProvider();
+        assertFalse(withoutHeaders.useShibHeaders);
+
+        System.setProperty(CONFIG_SHIB_USE_HEADERS, "true");
+        final ShibAuthUserProvider withHeaders = SharedProviders.userProvider();
+        assertTrue(withHeaders.useShibHeaders);
+        assertNotSame(withoutHeaders, withHeaders);
+        assertNotSame(rolesWithoutHeaders, SharedProviders.rolesProvider());
+
+        System.setProperty(CONFIG_SHIB_USE_HEADERS, "false");
+        assertSame(withoutHeaders, SharedProviders.userProvider());
+    }
+}
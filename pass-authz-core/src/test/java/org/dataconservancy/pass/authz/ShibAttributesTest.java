@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static org.dataconservancy.pass.authz.ShibAttributes.shibAttribute;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.EPPN_HEADER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ShibAttributesTest {
+
+    @Mock
+    HttpServletRequest request;
+
+    @Test
+    public void attributeTest() {
+        when(request.getAttribute(EPPN_HEADER)).thenReturn("moo@example.org");
+
+        assertEquals("moo@example.org", shibAttribute(request, EPPN_HEADER, true));
+        verify(request, never()).getHeader(EPPN_HEADER);
+    }
+
+    @Test
+    public void headerTest() {
+        when(request.getHeader(EPPN_HEADER)).thenReturn("moo@example.org");
+
+        assertEquals("moo@example.org", shibAttribute(request, EPPN_HEADER, true));
+    }
+
+    @Test
+    public void noHeadersTest() {
+        assertNull(shibAttribute(request, EPPN_HEADER, false));
+        verify(request, never()).getHeader(EPPN_HEADER);
+    }
+}
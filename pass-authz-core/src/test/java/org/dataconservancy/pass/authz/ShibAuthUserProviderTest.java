@@ -17,6 +17,7 @@
 package org.dataconservancy.pass.authz;
 
 import static java.util.Arrays.asList;
+import static org.dataconservancy.pass.authz.EligibilityPolicy.PROP_ELIGIBILITY_RULES;
 import static org.dataconservancy.pass.authz.ShibAuthUserProvider.DISPLAY_NAME_HEADER;
 import static org.dataconservancy.pass.authz.ShibAuthUserProvider.EMAIL_HEADER;
 import static org.dataconservancy.pass.authz.ShibAuthUserProvider.EMPLOYEE_ID;
@@ -26,11 +27,17 @@ import static org.dataconservancy.pass.authz.ShibAuthUserProvider.UNSCOPED_AFFIL
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.time.Duration;
+
 import javax.servlet.http.HttpServletRequest;
 
 import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.model.User;
+import org.dataconservancy.pass.model.User.Role;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -111,6 +118,51 @@ public class ShibAuthUserProviderTest {
         Assert.assertEquals(employeeId, user.getEmployeeId());
     }
 
+    @Test
+    public void lookupFailureTest() {
+        when(request.getHeader(EPPN_HEADER)).thenReturn("cbull999@jhu.edu");
+        when(request.getHeader(EMPLOYEE_ID)).thenReturn("87654321");
+        when(client.findByAttribute(User.class, "localKey", "87654321")).thenThrow(
+                new RuntimeException("Fedora is down"));
+
+        // Not the shared cache, which other tests may have put this user in
+        final ShibAuthUserProvider underTest = new ShibAuthUserProvider(client,
+                new ExpiringLRUCache<>(10, Duration.ofMinutes(1)));
+
+        try {
+            underTest.getUser(request);
+            Assert.fail("Should have thrown an exception");
+        } catch (final RuntimeException e) {
+            Assert.assertEquals("Fedora is down", e.getCause().getMessage());
+        }
+        Assert.assertFalse(underTest.isCached(request));
+    }
+
+    @Test
+    public void configuredEligibilityTest() {
+        final String eppn = "cbull999@jhu.edu";
+        final String affiliation = "STAFF;WIDOWMAKER";
+        final String scopedAffiliation = "STAFF@jhu.edu;WIDOWMAKER@library.jhu.edu";
+
+        when(request.getHeader(EPPN_HEADER)).thenReturn(eppn);
+        when(request.getHeader(UNSCOPED_AFFILIATION_HEADER)).thenReturn(affiliation);
+        when(request.getHeader(SCOPED_AFFILIATION_HEADER)).thenReturn(scopedAffiliation);
+
+        System.setProperty(PROP_ELIGIBILITY_RULES, "affiliation:FACULTY, scoped:widowmaker@library.jhu.edu");
+        System.setProperty("authz.role.admin.rules", "affiliation:STAFF & domain:.jhu.edu");
+
+        final ShibAuthUserProvider underTest = new ShibAuthUserProvider(client);
+        final AuthUser user = underTest.getUser(request);
+
+        assertTrue(user.isFaculty());
+        assertEquals(2, user.getUserRoles().size());
+        assertTrue(user.getUserRoles().containsAll(asList(Role.SUBMITTER, Role.ADMIN)));
+
+        // Read by several rules, but only looked up once
+        verify(request, times(1)).getHeader(UNSCOPED_AFFILIATION_HEADER);
+        verify(request, times(1)).getHeader(SCOPED_AFFILIATION_HEADER);
+    }
+
     @Test
     public void userPrincipalTest() {
         final String displayName = "Charlie Bull";
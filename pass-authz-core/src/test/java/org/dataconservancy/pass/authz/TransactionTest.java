@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+
+import org.fcrepo.client.FcrepoClient;
+import org.fcrepo.client.FcrepoResponse;
+import org.fcrepo.client.PostBuilder;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TransactionTest {
+
+    static final URI BASE = URI.create("http://example.org/rest/");
+
+    static final URI TX = URI.create("http://example.org/rest/tx:abc");
+
+    @Mock
+    FcrepoClient client;
+
+    @Mock
+    PostBuilder post;
+
+    @Mock
+    FcrepoResponse response;
+
+    @Test
+    public void uriMappingTest() throws Exception {
+        when(client.post(eq(URI.create(BASE + "fcr:tx")))).thenReturn(post);
+        when(post.perform()).thenReturn(response);
+        when(response.getStatusCode()).thenReturn(201);
+        when(response.getLocation()).thenReturn(TX);
+
+        final Transaction tx = Transaction.begin(client, BASE);
+        assertTrue(tx.isActive());
+
+        final URI resource = URI.create(BASE + "foo/bar");
+        final URI inTx = URI.create(TX + "/foo/bar");
+        final URI elsewhere = URI.create("http://example.com/foo");
+
+        assertEquals(inTx, tx.in(resource));
+        assertEquals(inTx, tx.in(inTx));
+        assertEquals(resource, tx.out(inTx));
+        assertEquals(resource, tx.out(resource));
+        assertEquals(elsewhere, tx.in(elsewhere));
+    }
+
+    @Test
+    public void commitTest() throws Exception {
+        when(client.post(eq(URI.create(BASE + "fcr:tx")))).thenReturn(post);
+        when(client.post(eq(URI.create(TX + "/fcr:tx/fcr:commit")))).thenReturn(post);
+        when(post.perform()).thenReturn(response);
+        when(response.getStatusCode()).thenReturn(201, 204);
+        when(response.getLocation()).thenReturn(TX);
+
+        Transaction.begin(client, BASE).commit();
+
+        verify(client).post(eq(URI.create(TX + "/fcr:tx/fcr:commit")));
+    }
+
+    @Test
+    public void noTransactionTest() {
+        final URI resource = URI.create(BASE + "foo");
+
+        assertFalse(Transaction.NONE.isActive());
+        assertEquals(resource, Transaction.NONE.in(resource));
+        assertEquals(resource, Transaction.NONE.out(resource));
+
+        Transaction.NONE.commit();
+        Transaction.NONE.rollback();
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.dataconservancy.pass.authz.Authorization.MODE_APPEND;
+import static org.dataconservancy.pass.authz.Authorization.MODE_READ;
+import static org.dataconservancy.pass.authz.Authorization.MODE_WRITE;
+import static org.dataconservancy.pass.authz.WebAcIndex.Mode.APPEND;
+import static org.dataconservancy.pass.authz.WebAcIndex.Mode.READ;
+import static org.dataconservancy.pass.authz.WebAcIndex.Mode.WRITE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+public class WebAcIndexTest {
+
+    static final URI ACL = URI.create("test:acl");
+
+    static final URI RESOURCE = URI.create("test:resource");
+
+    static final URI OTHER_RESOURCE = URI.create("test:other");
+
+    static final List<URI> ROLE_1 = asList(URI.create("test:role1"));
+
+    static final List<URI> ROLE_2 = asList(URI.create("test:role2"));
+
+    final WebAcIndex toTest = new WebAcIndex();
+
+    @Test
+    public void accessToTest() {
+        toTest.putAcl(ACL, asList(
+                auth(ACL + "/a", RESOURCE, ROLE_1, MODE_READ),
+                auth(ACL + "/b", RESOURCE, ROLE_2, MODE_WRITE)));
+
+        assertTrue(toTest.isAuthorized(ROLE_1, RESOURCE, READ));
+        assertFalse(toTest.isAuthorized(ROLE_1, RESOURCE, WRITE));
+        assertFalse(toTest.isAuthorized(ROLE_2, RESOURCE, READ));
+        assertTrue(toTest.isAuthorized(ROLE_2, RESOURCE, WRITE));
+        assertTrue(toTest.isAuthorized(ROLE_2, RESOURCE, APPEND));
+        assertFalse(toTest.isAuthorized(ROLE_1, OTHER_RESOURCE, READ));
+        assertTrue(toTest.isAuthorized(asList(ROLE_2.get(0), ROLE_1.get(0)), RESOURCE, READ));
+    }
+
+    @Test
+    public void appendOnlyTest() {
+        toTest.putAcl(ACL, asList(auth(ACL + "/a", RESOURCE, ROLE_1, MODE_APPEND)));
+
+        assertTrue(toTest.isAuthorized(ROLE_1, RESOURCE, APPEND));
+        assertFalse(toTest.isAuthorized(ROLE_1, RESOURCE, WRITE));
+    }
+
+    @Test
+    public void replaceAclTest() {
+        toTest.putAcl(ACL, asList(auth(ACL + "/a", RESOURCE, ROLE_1, MODE_READ)));
+        toTest.putAcl(ACL, asList(auth(ACL + "/b", RESOURCE, ROLE_2, MODE_READ)));
+
+        assertFalse(toTest.isAuthorized(ROLE_1, RESOURCE, READ));
+        assertTrue(toTest.isAuthorized(ROLE_2, RESOURCE, READ));
+
+        toTest.removeAcl(ACL);
+        assertFalse(toTest.isAuthorized(ROLE_2, RESOURCE, READ));
+    }
+
+    @Test
+    public void multipleAclsTest() {
+        final URI OTHER_ACL = URI.create("test:otherAcl");
+        toTest.putAcl(ACL, asList(auth(ACL + "/a", RESOURCE, ROLE_1, MODE_READ)));
+        toTest.putAcl(OTHER_ACL, asList(auth(OTHER_ACL + "/a", RESOURCE, ROLE_2, MODE_READ)));
+
+        toTest.putAcl(ACL, emptyList());
+        assertFalse(toTest.isAuthorized(ROLE_1, RESOURCE, READ));
+        assertTrue(toTest.isAuthorized(ROLE_2, RESOURCE, READ));
+    }
+
+    @Test
+    public void accessToClassTest() {
+        final Authorization shared = new Authorization(URI.create(ACL + "/read"));
+        shared.accessToClass.add(URI.create("http://fedora.info/definitions/v4/repository#Resource"));
+        shared.agents.addAll(ROLE_1);
+        shared.modes.add(MODE_READ);
+        toTest.putAcl(ACL, asList(shared));
+
+        assertFalse(toTest.isAuthorized(ROLE_1, RESOURCE, READ));
+
+        toTest.link(RESOURCE, ACL);
+        assertTrue(toTest.isAuthorized(ROLE_1, RESOURCE, READ));
+        assertFalse(toTest.isAuthorized(ROLE_1, OTHER_RESOURCE, READ));
+
+        toTest.link(RESOURCE, null);
+        assertFalse(toTest.isAuthorized(ROLE_1, RESOURCE, READ));
+    }
+
+    @Test
+    public void resourcesTest() {
+        final Authorization shared = new Authorization(URI.create("test:shared/read"));
+        shared.accessToClass.add(URI.create("http://fedora.info/definitions/v4/repository#Resource"));
+        shared.agents.addAll(ROLE_2);
+        shared.modes.add(MODE_READ);
+        toTest.putAcl(URI.create("test:shared"), asList(shared));
+        toTest.link(OTHER_RESOURCE, URI.create("test:shared"));
+
+        toTest.putAcl(ACL, asList(
+                auth(ACL + "/a", RESOURCE, ROLE_1, MODE_READ),
+                auth(ACL + "/b", RESOURCE, ROLE_2, MODE_WRITE)));
+
+        assertEquals(new HashSet<>(asList(RESOURCE)), toTest.resources(ROLE_1, READ));
+        assertEquals(new HashSet<>(asList(OTHER_RESOURCE)), toTest.resources(ROLE_2, READ));
+        assertEquals(new HashSet<>(asList(RESOURCE)), toTest.resources(ROLE_2, WRITE));
+
+        toTest.putAcl(ACL, asList(auth(ACL + "/b", RESOURCE, ROLE_2, MODE_WRITE)));
+        assertTrue(toTest.resources(ROLE_1, READ).isEmpty());
+
+        toTest.link(OTHER_RESOURCE, null);
+        assertTrue(toTest.resources(ROLE_2, READ).isEmpty());
+    }
+
+    @Test
+    public void relinkTest() {
+        toTest.putAcl(ACL, asList(auth(ACL + "/a", RESOURCE, ROLE_1, MODE_READ)));
+        toTest.link(RESOURCE, ACL);
+        assertTrue(toTest.isAuthorized(ROLE_1, RESOURCE, READ));
+
+        // Shared, as by ACLManager.sharePermissions; the old ACL still names the resource, but no longer applies
+        final URI sharedAcl = URI.create("test:shared");
+        final Authorization shared = new Authorization(URI.create(sharedAcl + "/read"));
+        shared.accessToClass.add(URI.create("http://fedora.info/definitions/v4/repository#Resource"));
+        shared.agents.addAll(ROLE_2);
+        shared.modes.add(MODE_READ);
+        toTest.putAcl(sharedAcl, asList(shared));
+        toTest.link(RESOURCE, sharedAcl);
+
+        assertFalse(toTest.isAuthorized(ROLE_1, RESOURCE, READ));
+        assertTrue(toTest.isAuthorized(ROLE_2, RESOURCE, READ));
+        assertTrue(toTest.resources(ROLE_1, READ).isEmpty());
+        assertEquals(new HashSet<>(asList(RESOURCE)), toTest.resources(ROLE_2, READ));
+        assertEquals(sharedAcl, toTest.linkedAcl(RESOURCE));
+
+        // Known to have no ACL at all
+        toTest.link(RESOURCE, null);
+        assertTrue(toTest.isLinked(RESOURCE));
+        assertFalse(toTest.isAuthorized(ROLE_1, RESOURCE, READ));
+
+        // Link no longer known, so any ACL naming the resource applies
+        toTest.forget(RESOURCE);
+        assertFalse(toTest.isLinked(RESOURCE));
+        assertTrue(toTest.isAuthorized(ROLE_1, RESOURCE, READ));
+    }
+
+    @Test
+    public void checksumTest() {
+        final Authorization a = auth(ACL + "/a", RESOURCE, ROLE_1, MODE_READ);
+        final Authorization b = auth(ACL + "/b", RESOURCE, ROLE_2, MODE_WRITE);
+
+        assertEquals(WebAcIndex.checksum(asList(a, b)), WebAcIndex.checksum(asList(b, a)));
+        assertNotEquals(WebAcIndex.checksum(asList(a, b)), WebAcIndex.checksum(asList(a)));
+
+        toTest.putAcl(ACL, asList(a, b));
+        assertEquals(WebAcIndex.checksum(asList(a, b)), toTest.checksum(ACL));
+    }
+
+    static Authorization auth(String uri, URI resource, List<URI> agents, URI mode) {
+        final Authorization auth = new Authorization(URI.create(uri));
+        auth.accessTo.add(resource);
+        auth.agents.addAll(agents);
+        auth.modes.add(mode);
+        return auth;
+    }
+}
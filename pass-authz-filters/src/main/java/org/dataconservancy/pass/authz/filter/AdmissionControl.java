@@ -0,0 +1,317 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz.filter;
+
+import static java.util.Optional.ofNullable;
+import static org.dataconservancy.pass.authz.ConfigUtil.getValue;
+import static org.dataconservancy.pass.authz.ConfigUtil.intValue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admission control for requests that look up roles, so no one principal, and no rush of new users, can saturate
+ * the repository.
+ * <p>
+ * Each principal has a token bucket that refills at {@value #PROP_RATE} requests per second, holding up to
+ * {@value #PROP_BURST} (default: the rate, at least 1). A request finding its bucket empty is throttled. Buckets are
+ * kept for up to {@value #PROP_PRINCIPALS} principals (default 10000), least recently used first out, in a number of
+ * independently locked stripes, so principals rarely contend with each other.
+ * </p>
+ * <p>
+ * Requests that have to look up their user or roles from the repository also need one of a limited number of
+ * permits. The limit starts at {@value #PROP_CONCURRENCY} and adapts to how the repository copes (AIMD): each lookup
+ * that succeeds within {@value #PROP_LATENCY} milliseconds (default 500) while the permits are well used raises it a
+ * little, up to {@value #PROP_CONCURRENCY_MAX} (default ten times the initial limit), while each lookup that fails or
+ * is slower cuts it by 10%, down to 1. Requests that cannot get a permit are shed, and told to retry after
+ * {@value #PROP_RETRY} seconds (default 1).
+ * </p>
+ * <p>
+ * Either limit is off unless configured with a positive value.
+ * </p>
+ */
+class AdmissionControl implements AdmissionControlMXBean {
+
+    static final Logger LOG = LoggerFactory.getLogger(AdmissionControl.class);
+
+    public static final String PROP_RATE = "authz.admission.rate";
+
+    public static final String PROP_BURST = "authz.admission.burst";
+
+    public static final String PROP_PRINCIPALS = "authz.admission.principals";
+
+    public static final String PROP_CONCURRENCY = "authz.admission.concurrency";
+
+    public static final String PROP_CONCURRENCY_MAX = "authz.admission.concurrency.max";
+
+    public static final String PROP_LATENCY = "authz.admission.latency";
+
+    public static final String PROP_RETRY = "authz.admission.retry";
+
+    static final int STRIPES = 16;
+
+    static final double BACKOFF = 0.9;
+
+    private final double rate;
+
+    private final double burst;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final int maxLimit;
+
+    private final long latencyNanos;
+
+    private final int retryAfter;
+
+    private final LongSupplier clock;
+
+    private volatile double limit;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final LongAdder throttled = new LongAdder();
+
+    private final LongAdder shed = new LongAdder();
+
+    AdmissionControl(double rate, double burst, int principals, int concurrency, int maxConcurrency,
+            long latencyMillis, int retryAfter, LongSupplier clock) {
+        this.rate = rate;
+        this.burst = burst;
+        this.limit = concurrency;
+        this.maxLimit = maxConcurrency;
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        this.retryAfter = retryAfter;
+        this.clock = clock;
+
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(Math.max(1, principals / STRIPES));
+        }
+    }
+
+    /**
+     * Create admission control as configured.
+     *
+     * @return Admission control, or null if neither limit is configured.
+     */
+    static AdmissionControl fromConfig() {
+        final double rate = ofNullable(getValue(PROP_RATE)).map(Double::valueOf).orElse(0.0);
+        final int concurrency = intValue(PROP_CONCURRENCY, 0);
+
+        if (rate <= 0 && concurrency <= 0) {
+            return null;
+        }
+
+        return new AdmissionControl(
+                rate,
+                ofNullable(getValue(PROP_BURST)).map(Double::valueOf).orElse(Math.max(rate, 1)),
+                intValue(PROP_PRINCIPALS, 10000),
+                concurrency,
+                intValue(PROP_CONCURRENCY_MAX, concurrency * 10),
+                intValue(PROP_LATENCY, 500),
+                intValue(PROP_RETRY, 1),
+                System::currentTimeMillis);
+    }
+
+    /**
+     * Take a token from a principal's bucket.
+     *
+     * @param principal The principal, or null if unknown, in which case the request is never throttled.
+     * @return 0 if the request may proceed, otherwise the number of milliseconds until it may.
+     */
+    long throttle(String principal) {
+        if (rate <= 0 || principal == null) {
+            return 0;
+        }
+
+        final Stripe stripe = stripes[(principal.hashCode() ^ (principal.hashCode() >>> 16)) & (STRIPES - 1)];
+        synchronized (stripe) {
+            final long now = clock.getAsLong();
+            Bucket bucket = stripe.get(principal);
+            if (bucket == null) {
+                bucket = new Bucket(burst, now);
+                stripe.put(principal, bucket);
+            } else {
+                bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.time) * rate / 1000);
+                bucket.time = now;
+            }
+
+            if (bucket.tokens >= 1) {
+                bucket.tokens--;
+                return 0;
+            }
+
+            throttled.increment();
+            return Math.max(1, (long) Math.ceil((1 - bucket.tokens) * 1000 / rate));
+        }
+    }
+
+    /**
+     * Get a permit to look up a user and roles from the repository.
+     *
+     * @return The permit, which must be released, or null if the request should be shed.
+     */
+    Permit acquire() {
+        if (limit <= 0) {
+            return Permit.UNLIMITED;
+        }
+
+        while (true) {
+            final int current = inFlight.get();
+            if (current >= (int) limit) {
+                shed.increment();
+                return null;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return new Permit(this, current + 1);
+            }
+        }
+    }
+
+    /**
+     * @return Seconds shed requests should wait before retrying.
+     */
+    int retryAfter() {
+        return retryAfter;
+    }
+
+    /* Adjust the limit after a lookup */
+    private synchronized void sample(boolean succeeded, long nanos, int used) {
+        if (!succeeded || nanos > latencyNanos) {
+            final double lowered = Math.max(1, limit * BACKOFF);
+            if ((int) lowered < (int) limit) {
+                LOG.info("Lowering the limit on concurrent role lookups to {}", (int) lowered);
+            }
+            limit = lowered;
+        } else if (used * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    @Override
+    public int getConcurrencyLimit() {
+        return (int) limit;
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    @Override
+    public long getShed() {
+        return shed.sum();
+    }
+
+    @Override
+    public int getTrackedPrincipals() {
+        int count = 0;
+        for (final Stripe stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Permission to look up a user and roles.
+     * <p>
+     * A permit is released once, by whichever of {@link #done(boolean, long)} or {@link #release()} is called first.
+     * </p>
+     */
+    static class Permit {
+
+        /* Issued when there is no concurrency limit */
+        static final Permit UNLIMITED = new Permit(null, 0);
+
+        private final AdmissionControl control;
+
+        private final int used;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(AdmissionControl control, int used) {
+            this.control = control;
+            this.used = used;
+        }
+
+        /**
+         * Release the permit after a lookup, adjusting the limit by how it went.
+         *
+         * @param succeeded Whether the lookup succeeded.
+         * @param nanos How long it took.
+         */
+        void done(boolean succeeded, long nanos) {
+            if (control != null && released.compareAndSet(false, true)) {
+                control.inFlight.decrementAndGet();
+                control.sample(succeeded, nanos, used);
+            }
+        }
+
+        /**
+         * Release the permit without a lookup.
+         */
+        void release() {
+            if (control != null && released.compareAndSet(false, true)) {
+                control.inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private static class Bucket {
+
+        double tokens;
+
+        long time;
+
+        Bucket(double tokens, long time) {
+            this.tokens = tokens;
+            this.time = time;
+        }
+    }
+
+    /* Least recently used buckets of some principals, locked as a whole */
+    @SuppressWarnings("serial")
+    private static class Stripe extends LinkedHashMap<String, Bucket> {
+
+        private final int capacity;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+            return size() > capacity;
+        }
+    }
+}
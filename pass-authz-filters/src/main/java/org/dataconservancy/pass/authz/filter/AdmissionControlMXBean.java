@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz.filter;
+
+/**
+ * JMX view of admission control in {@link PassRolesFilter}.
+ */
+public interface AdmissionControlMXBean {
+
+    /**
+     * @return Current limit on concurrent user and role lookups, or 0 if unlimited.
+     */
+    int getConcurrencyLimit();
+
+    /**
+     * @return Number of user and role lookups in progress.
+     */
+    int getInFlight();
+
+    /**
+     * @return Number of requests refused because their principal exceeded its rate.
+     */
+    long getThrottled();
+
+    /**
+     * @return Number of requests refused because too many lookups were in progress.
+     */
+    long getShed();
+
+    /**
+     * @return Number of principals whose rate is being tracked.
+     */
+    int getTrackedPrincipals();
+}
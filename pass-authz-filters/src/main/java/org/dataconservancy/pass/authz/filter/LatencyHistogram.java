@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz.filter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values, for latency percentiles.
+ * <p>
+ * Values are counted in log-linear buckets, as in HdrHistogram: each power of two is split into
+ * {@value #SUB_BUCKETS} buckets, so recorded values are kept to within 12.5%, in a fixed amount of memory.
+ * </p>
+ */
+class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 3;
+
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+    private final LongAdder total = new LongAdder();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value Value to record; negative values are recorded as zero.
+     */
+    void record(long value) {
+        final long v = Math.max(value, 0);
+        counts.incrementAndGet(index(v));
+        total.increment();
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    /**
+     * @return Number of values recorded.
+     */
+    long count() {
+        return total.sum();
+    }
+
+    /**
+     * @return Largest value recorded.
+     */
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile Percentile, from 0 to 100.
+     * @return Largest value that may be at that percentile, or 0 if nothing has been recorded.
+     */
+    long percentile(double percentile) {
+        final long target = (long) Math.ceil(percentile / 100 * count());
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target && seen > 0) {
+                final long upper = lowerBound(i + 1) - 1;
+                return upper < 0 ? max() : Math.min(upper, max());
+            }
+        }
+        return max();
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long sub = index % SUB_BUCKETS;
+        return (1L << exponent) | (sub << (exponent - SUB_BUCKET_BITS));
+    }
+}
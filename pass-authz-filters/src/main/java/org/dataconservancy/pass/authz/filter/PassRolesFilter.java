@@ -18,17 +18,31 @@ package org.dataconservancy.pass.authz.filter;
 
 import static java.util.Optional.ofNullable;
 import static org.dataconservancy.pass.authz.ConfigUtil.getValue;
+import static org.dataconservancy.pass.authz.ShibAttributes.shibAttribute;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.EMPLOYEE_ID;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.EPPN_HEADER;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.AsyncContext;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -37,19 +51,58 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
 
 import org.dataconservancy.pass.authz.AuthRolesProvider;
 import org.dataconservancy.pass.authz.AuthUser;
 import org.dataconservancy.pass.authz.AuthUserProvider;
 import org.dataconservancy.pass.authz.LogUtil;
-import org.dataconservancy.pass.authz.ShibAuthUserProvider;
-import org.dataconservancy.pass.client.PassClient;
-import org.dataconservancy.pass.client.PassClientFactory;
+import org.dataconservancy.pass.authz.SharedProviders;
+import org.dataconservancy.pass.authz.ShibAttributes;
+import org.dataconservancy.pass.authz.filter.RoleLookupTimings.Phase;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Adds the roles of the current user to a request header.
+ * <p>
+ * Requests that cannot benefit from roles may bypass the role lookup entirely. They are still stripped of any roles
+ * they assert themselves, unless external roles are allowed. Bypass rules are:
+ * </p>
+ * <dl>
+ * <dt>{@value #PROP_BYPASS_METHODS}</dt>
+ * <dd>Comma-separated HTTP methods, e.g. <code>OPTIONS,HEAD</code></dd>
+ * <dt>{@value #PROP_BYPASS_PATHS}</dt>
+ * <dd>Comma-separated path prefixes, matched against the servlet path and path info, e.g.
+ * <code>/static,/health</code></dd>
+ * <dt>{@value #PROP_BYPASS_ANONYMOUS}</dt>
+ * <dd>If true, bypass requests with no Shibboleth identity (Eppn or Employeenumber)</dd>
+ * </dl>
+ * <p>
+ * If {@value #PROP_ASYNC} is true, requests whose user or roles are not already cached are put into async mode while
+ * their roles are looked up on a pool of {@value #PROP_ASYNC_THREADS} threads (default 16), so container threads are
+ * not held waiting for the repository. The request is then dispatched again, and continues down the chain with the
+ * roles that were found. The request dispatched is the one carrying those roles, so roles asserted by the client are
+ * never passed on, even if the filter is not mapped with the <code>ASYNC</code> dispatcher type. Everything after the
+ * filter must support async. Requests whose roles are cached are handled directly, as usual.
+ * </p>
+ * <p>
+ * If user or role lookups keep failing, they are skipped for a while and requests are given the last roles known for
+ * their principal instead; see {@link RoleLookupGuard}. Its state is available over JMX as {@value #MBEAN_NAME}.
+ * </p>
+ * <p>
+ * If {@value #PROP_TIMING} is true, the time spent in each phase of finding roles, and the backend calls made, are
+ * recorded and available over JMX as {@value #TIMINGS_MBEAN_NAME}; see {@link RoleLookupTimings}. If
+ * {@value #PROP_TIMING_HEADER} is true, they are also added to each response as a <code>Server-Timing</code> header.
+ * </p>
+ * <p>
+ * Requests that look up roles may be limited per principal, and while they wait for the repository, by
+ * {@link AdmissionControl}. Requests over their principal's rate get a 429, and those shed to protect the repository
+ * get a 503, both with a <code>Retry-After</code> header. Its state is available over JMX as
+ * {@value #ADMISSION_MBEAN_NAME}.
+ * </p>
+ *
  * @author apb@jhu.edu
  */
 public class PassRolesFilter implements Filter {
@@ -64,8 +117,59 @@ public class PassRolesFilter implements Filter {
 
     public static final String PROP_HEADER_SEPARATOR = "authz.header.separator";
 
+    public static final String PROP_BYPASS_METHODS = "authz.bypass.methods";
+
+    public static final String PROP_BYPASS_PATHS = "authz.bypass.paths";
+
+    public static final String PROP_BYPASS_ANONYMOUS = "authz.bypass.anonymous";
+
+    public static final String PROP_ASYNC = "authz.async";
+
+    public static final String PROP_ASYNC_THREADS = "authz.async.threads";
+
+    public static final String PROP_TIMING = "authz.timing";
+
+    public static final String PROP_TIMING_HEADER = "authz.timing.header";
+
+    static final String SERVER_TIMING = "Server-Timing";
+
+    static final String RETRY_AFTER = "Retry-After";
+
+    static final int SC_TOO_MANY_REQUESTS = 429;
+
+    static final String ROLES_ATTRIBUTE = PassRolesFilter.class.getName() + ".roles";
+
+    static final int MAX_ROLE_HEADERS = 1024;
+
+    static final String MBEAN_NAME = "org.dataconservancy.pass.authz:type=PassRolesFilter,name=roleLookups";
+
+    static final String TIMINGS_MBEAN_NAME = "org.dataconservancy.pass.authz:type=PassRolesFilter,name=timings";
+
+    static final String ADMISSION_MBEAN_NAME = "org.dataconservancy.pass.authz:type=PassRolesFilter,name=admission";
+
     boolean allowExternalRoles;
 
+    Set<String> bypassMethods = Collections.emptySet();
+
+    PathPrefixes bypassPaths = new PathPrefixes();
+
+    boolean bypassAnonymous;
+
+    ExecutorService asyncExecutor;
+
+    RoleLookupGuard roleLookups = RoleLookupGuard.fromConfig();
+
+    RoleLookupTimings timings;
+
+    boolean timingHeader;
+
+    AdmissionControl admission;
+
+    /* Role header values, shared by all requests with the same roles */
+    final Map<Set<String>, String> roleHeaders = new ConcurrentHashMap<>();
+
+    final boolean useShibHeaders = ShibAttributes.useShibHeaders();
+
     final String authzHeader = ofNullable(getValue(PROP_HEADER_NAME)).orElse(DEFAULT_ROLE_HEADER);
 
     final String authzRoleSeparator = ofNullable(getValue(PROP_HEADER_SEPARATOR)).orElse(",");
@@ -77,9 +181,8 @@ public class PassRolesFilter implements Filter {
     public PassRolesFilter() {
         LogUtil.adjustLogLevels();
 
-        final PassClient fedoraClient = PassClientFactory.getPassClient();
-        userProvider = new ShibAuthUserProvider(fedoraClient);
-        rolesProvider = new AuthRolesProvider(fedoraClient);
+        userProvider = SharedProviders.userProvider();
+        rolesProvider = SharedProviders.rolesProvider();
     }
 
     @Override
@@ -94,6 +197,46 @@ public class PassRolesFilter implements Filter {
             LOG.warn("Init: Allowing external values for authz header {}", authzHeader);
         }
 
+        bypassMethods = new HashSet<>();
+        for (final String method : list(PROP_BYPASS_METHODS)) {
+            bypassMethods.add(method.toUpperCase());
+        }
+
+        bypassPaths = new PathPrefixes();
+        list(PROP_BYPASS_PATHS).forEach(bypassPaths::add);
+
+        bypassAnonymous = Boolean.valueOf(ofNullable(getValue(PROP_BYPASS_ANONYMOUS)).orElse("false"));
+
+        if (!bypassMethods.isEmpty() || !bypassPaths.isEmpty() || bypassAnonymous) {
+            LOG.info("Bypassing role lookup for methods {}, paths {}, anonymous requests: {}", bypassMethods,
+                    getValue(PROP_BYPASS_PATHS), bypassAnonymous);
+        }
+
+        roleLookups = RoleLookupGuard.fromConfig();
+        register(roleLookups, MBEAN_NAME);
+
+        timingHeader = Boolean.valueOf(ofNullable(getValue(PROP_TIMING_HEADER)).orElse("false"));
+        if (timingHeader || Boolean.valueOf(ofNullable(getValue(PROP_TIMING)).orElse("false"))) {
+            LOG.info("Timing role lookups{}", timingHeader ? ", and adding Server-Timing headers" : "");
+            timings = new RoleLookupTimings();
+            register(timings, TIMINGS_MBEAN_NAME);
+        }
+
+        admission = AdmissionControl.fromConfig();
+        if (admission != null) {
+            LOG.info("Limiting role lookups per principal and overall");
+            register(admission, ADMISSION_MBEAN_NAME);
+        }
+
+        if (Boolean.valueOf(ofNullable(getValue(PROP_ASYNC)).orElse("false"))) {
+            final int threads = Integer.valueOf(ofNullable(getValue(PROP_ASYNC_THREADS)).orElse("16"));
+            LOG.info("Looking up uncached roles asynchronously, with {} threads", threads);
+            asyncExecutor = Executors.newFixedThreadPool(threads, r -> {
+                final Thread thread = new Thread(r, "authz-roles");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
     }
 
     @Override
@@ -102,22 +245,295 @@ public class PassRolesFilter implements Filter {
 
         final HttpServletRequest req = (HttpServletRequest) request;
 
-        chain.doFilter(new AuthzRequestWrapper(req), response);
+        final Object resolved = req.getAttribute(ROLES_ATTRIBUTE);
+        if (resolved instanceof ResolvedRoles) {
+            // Dispatched again after looking up roles asynchronously
+            req.removeAttribute(ROLES_ATTRIBUTE);
+            chain.doFilter(new AuthzRequestWrapper(req, ((ResolvedRoles) resolved).roles), response);
+            return;
+        }
 
+        final boolean lookupUser = !bypass(req);
+        final boolean async = asyncExecutor != null && req.isAsyncSupported();
+        final AuthUser cachedUser = lookupUser && (async || admission != null) ? cachedUser(req) : null;
+        final boolean uncached = lookupUser && (async || admission != null) && cachedUser == null;
+
+        AdmissionControl.Permit permit = null;
+        if (lookupUser && admission != null) {
+            final String principal = principal(req);
+            final long wait = admission.throttle(principal);
+            if (wait > 0) {
+                LOG.debug("Throttling requests from {}", principal);
+                reject((HttpServletResponse) response, SC_TOO_MANY_REQUESTS, (wait + 999) / 1000);
+                return;
+            }
+
+            if (uncached) {
+                permit = admission.acquire();
+                if (permit == null) {
+                    LOG.debug("Too many role lookups in progress, shedding request");
+                    reject((HttpServletResponse) response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, admission
+                            .retryAfter());
+                    return;
+                }
+            }
+        }
+
+        if (uncached && async) {
+            resolveAsync(req, (HttpServletResponse) response, permit);
+            return;
+        }
+
+        final AuthzRequestWrapper wrapper = new AuthzRequestWrapper(req, lookupUser);
+        wrapper.permit = permit;
+        wrapper.user = cachedUser;
+        if (timingHeader) {
+            wrapper.timingResponse = (HttpServletResponse) response;
+        }
+
+        try {
+            chain.doFilter(wrapper, response);
+        } finally {
+            if (permit != null) {
+                permit.release();
+            }
+        }
+    }
+
+    private static void reject(HttpServletResponse response, int status, long retryAfter) throws IOException {
+        response.setHeader(RETRY_AFTER, String.valueOf(retryAfter));
+        response.sendError(status);
     }
 
     @Override
     public void destroy() {
-        // nothing
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+        }
+
+        unregister(MBEAN_NAME);
+        unregister(TIMINGS_MBEAN_NAME);
+        unregister(ADMISSION_MBEAN_NAME);
     }
 
-    class AuthzRequestWrapper extends HttpServletRequestWrapper {
+    /* Register an MBean, replacing any registered by a previous instance */
+    private void register(Object mbean, String objectName) {
+        unregister(objectName);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, new ObjectName(objectName));
+        } catch (final JMException e) {
+            LOG.warn("Could not register MBean {}", objectName, e);
+        }
+    }
+
+    private void unregister(String objectName) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(objectName);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (final JMException e) {
+            LOG.warn("Could not unregister MBean {}", objectName, e);
+        }
+    }
+
+    /* Look up roles on the async executor, then dispatch the request again */
+    private void resolveAsync(HttpServletRequest request, HttpServletResponse response,
+            AdmissionControl.Permit permit) {
+        LOG.debug("Looking up roles asynchronously");
+        final AuthzRequestWrapper wrapper = new AuthzRequestWrapper(request, true);
+        wrapper.permit = permit;
+
+        // Dispatch the wrapper, so the roles are rewritten even if this filter is not mapped for ASYNC dispatches
+        final AsyncContext context = request.startAsync(wrapper, response);
+
+        // The header is added once the roles are found, before dispatching
+        if (timingHeader) {
+            wrapper.timingResponse = response;
+        }
+
+        CompletableFuture.supplyAsync(wrapper::roles, asyncExecutor).whenComplete((roles, e) -> {
+            if (permit != null) {
+                permit.release();
+            }
+            if (e != null) {
+                LOG.warn("Error looking up roles", e);
+            }
+            request.setAttribute(ROLES_ATTRIBUTE, new ResolvedRoles(roles != null ? roles : ""));
+            context.dispatch();
+        });
+    }
+
+    /* Get the user for a request if it and its roles can be found without blocking, otherwise null */
+    private AuthUser cachedUser(HttpServletRequest request) {
+        try {
+            if (userProvider.isCached(request)) {
+                final AuthUser user = userProvider.getUser(request);
+                return rolesProvider.isCached(user) ? user : null;
+            }
+        } catch (final Exception e) {
+            LOG.debug("Could not determine if the user is cached", e);
+        }
+        return null;
+    }
+
+    /* Get the header value for a set of roles, which must not be modified afterwards */
+    String roleHeader(Set<String> roles) {
+        final String cached = roleHeaders.get(roles);
+        if (cached != null) {
+            return cached;
+        }
+
+        if (roleHeaders.size() >= MAX_ROLE_HEADERS) {
+            roleHeaders.clear();
+        }
+
+        final String joined = String.join(authzRoleSeparator, roles);
+        roleHeaders.put(roles, joined);
+        return joined;
+    }
+
+    /* Enumerates a list without copying it */
+    private static class ListEnumeration implements Enumeration<String> {
+
+        final List<String> list;
+
+        int next;
+
+        ListEnumeration(List<String> list) {
+            this.list = list;
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return next < list.size();
+        }
+
+        @Override
+        public String nextElement() {
+            if (next >= list.size()) {
+                throw new NoSuchElementException();
+            }
+            return list.get(next++);
+        }
+    }
+
+    /* Roles found asynchronously; a type of our own, so it cannot be confused with attributes set by others */
+    private static class ResolvedRoles {
 
         final String roles;
 
+        ResolvedRoles(String roles) {
+            this.roles = roles;
+        }
+    }
+
+    /* Determine if a request should skip role lookup */
+    boolean bypass(HttpServletRequest request) {
+        if (!bypassMethods.isEmpty() && bypassMethods.contains(request.getMethod())) {
+            LOG.debug("Bypassing role lookup for method {}", request.getMethod());
+            return true;
+        }
+
+        if (!bypassPaths.isEmpty()) {
+            // Decoded and normalized by the container, unlike the request URI, so dot segments or escapes cannot
+            // make a path look like a bypassed one
+            final String path = ofNullable(request.getServletPath()).orElse("") +
+                    ofNullable(request.getPathInfo()).orElse("");
+            if (bypassPaths.matches(path)) {
+                LOG.debug("Bypassing role lookup for path {}", path);
+                return true;
+            }
+        }
+
+        if (bypassAnonymous && principal(request) == null) {
+            LOG.debug("Bypassing role lookup for anonymous request");
+            return true;
+        }
+
+        return false;
+    }
+
+    /* The Shibboleth identity of a request, or null if it has none */
+    private String principal(HttpServletRequest request) {
+        return ofNullable(shibAttribute(request, EPPN_HEADER, useShibHeaders))
+                .orElseGet(() -> shibAttribute(request, EMPLOYEE_ID, useShibHeaders));
+    }
+
+    private static List<String> list(String key) {
+        return Arrays.stream(ofNullable(getValue(key)).orElse("").split(","))
+                .map(String::trim)
+                .filter(value -> !value.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Adds the user's roles to the authz header.
+     * <p>
+     * Roles are looked up the first time the authz header is read, and remembered for the rest of the request, so
+     * requests that never read it do not look up the user at all. Bypassed requests never look up the user, so
+     * only have the external roles, if those are allowed.
+     * </p>
+     * <p>
+     * Header names and values are computed at most once per request, and enumerated without copying, since the
+     * repository enumerates them several times per request.
+     * </p>
+     */
+    class AuthzRequestWrapper extends HttpServletRequestWrapper {
+
+        private final boolean lookupUser;
+
+        private volatile String roles;
+
+        /* Singleton list of roles, set before roles */
+        private List<String> roleValues;
+
+        private volatile List<String> headerNames;
+
+        /* Response to add a Server-Timing header to, if any */
+        HttpServletResponse timingResponse;
+
+        /* Admission permit for the lookup, if any */
+        AdmissionControl.Permit permit;
+
+        /* User already found while checking the cache, if any */
+        AuthUser user;
+
         public AuthzRequestWrapper(HttpServletRequest request) {
+            this(request, true);
+        }
+
+        AuthzRequestWrapper(HttpServletRequest request, boolean lookupUser) {
+            super(request);
+            this.lookupUser = lookupUser;
+        }
+
+        AuthzRequestWrapper(HttpServletRequest request, String roles) {
             super(request);
+            this.lookupUser = false;
+            this.roleValues = Collections.singletonList(roles);
+            this.roles = roles;
+        }
+
+        String roles() {
+            String resolved = roles;
+            if (resolved == null) {
+                synchronized (this) {
+                    resolved = roles;
+                    if (resolved == null) {
+                        resolved = resolveRoles((HttpServletRequest) getRequest());
+                        roleValues = Collections.singletonList(resolved);
+                        roles = resolved;
+                    }
+                }
+            }
+            return resolved;
+        }
 
+        private String resolveRoles(HttpServletRequest request) {
+            final RoleLookupTimings.Timer timer = timings != null && lookupUser ? timings.start()
+                    : RoleLookupTimings.NONE;
             final Set<String> rolesDiscovered = new HashSet<>();
 
             final String externalRoles = request.getHeader(authzHeader);
@@ -130,25 +546,66 @@ public class PassRolesFilter implements Filter {
                         externalRoles, authzHeader);
             }
 
-            try {
-                LOG.debug("Getting user info for roles");
-                final AuthUser user = userProvider.getUser(request);
+            if (!lookupUser) {
+                return roleHeader(rolesDiscovered);
+            }
 
-                rolesDiscovered.addAll(rolesProvider.getRoles(user).stream().map(URI::toString).collect(Collectors
-                        .toList()));
-            } catch (final Exception e) {
-                LOG.warn("Error looking up user or roles ", e);
+            final String principal = principal(request);
+            timer.mark(Phase.PARSE);
+
+            if (!roleLookups.allow()) {
+                LOG.debug("Skipping user and role lookup for {}, using last known roles", principal);
+                if (permit != null) {
+                    permit.release();
+                }
+                rolesDiscovered.addAll(roleLookups.stale(principal));
+            } else {
+                AuthUser user = this.user;
+                final long lookupStart = System.nanoTime();
+                try {
+                    if (user == null) {
+                        LOG.debug("Getting user info for roles");
+                        user = userProvider.getUser(request);
+                    }
+                    timer.mark(Phase.USER);
+
+                    final Set<String> found = new HashSet<>();
+                    for (final URI role : rolesProvider.getRoles(user)) {
+                        found.add(role.toString());
+                    }
+                    timer.mark(Phase.ROLES);
+                    if (permit != null) {
+                        permit.done(true, System.nanoTime() - lookupStart);
+                    }
+                    roleLookups.success(principal, found);
+                    rolesDiscovered.addAll(found);
+                } catch (final Exception e) {
+                    timer.mark(user == null ? Phase.USER : Phase.ROLES);
+                    if (permit != null) {
+                        permit.done(false, System.nanoTime() - lookupStart);
+                    }
+                    LOG.warn("Error looking up user or roles, using last known roles for {}", principal, e);
+                    roleLookups.failure();
+                    rolesDiscovered.addAll(roleLookups.stale(principal));
+                }
             }
 
-            roles = String.join(authzRoleSeparator, rolesDiscovered);
+            final String resolved = roleHeader(rolesDiscovered);
+            timer.mark(Phase.HEADER);
+
+            final String serverTiming = timer.finish();
+            if (serverTiming != null && timingResponse != null && !timingResponse.isCommitted()) {
+                timingResponse.addHeader(SERVER_TIMING, serverTiming);
+            }
 
-            LOG.debug("Using auth roles '{}'", roles);
+            LOG.debug("Using auth roles '{}'", resolved);
+            return resolved;
         }
 
         @Override
         public String getHeader(String name) {
             if (authzHeader.equals(name)) {
-                return roles;
+                return roles();
             } else {
                 return super.getHeader(name);
             }
@@ -156,20 +613,23 @@ public class PassRolesFilter implements Filter {
 
         @Override
         public Enumeration<String> getHeaderNames() {
-            final List<String> headers = Collections.list(super.getHeaderNames());
-            if (!allowExternalRoles) {
-                headers.add(authzHeader);
-            } else if (!headers.contains(authzHeader)) {
-                headers.add(authzHeader);
+            List<String> names = headerNames;
+            if (names == null) {
+                final List<String> headers = Collections.list(super.getHeaderNames());
+                if (!headers.contains(authzHeader)) {
+                    headers.add(authzHeader);
+                }
+                headerNames = names = Collections.unmodifiableList(headers);
             }
 
-            return Collections.enumeration(headers);
+            return new ListEnumeration(names);
         }
 
         @Override
         public Enumeration<String> getHeaders(String name) {
             if (authzHeader.equals(name)) {
-                return Collections.enumeration(Arrays.asList(roles));
+                roles();
+                return new ListEnumeration(roleValues);
             } else {
                 return super.getHeaders(name);
             }
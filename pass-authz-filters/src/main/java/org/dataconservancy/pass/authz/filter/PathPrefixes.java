@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz.filter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A set of path prefixes, matched segment by segment.
+ * <p>
+ * A prefix matches itself and any path beneath it, so <code>/static</code> matches <code>/static</code> and
+ * <code>/static/app.js</code>, but not <code>/statically</code>. Matching takes time proportional to the length of the
+ * path, no matter how many prefixes there are.
+ * </p>
+ */
+class PathPrefixes {
+
+    private final Node root = new Node();
+
+    private boolean empty = true;
+
+    /**
+     * @param prefix A path prefix.
+     */
+    void add(String prefix) {
+        Node node = root;
+        for (final String segment : prefix.split("/")) {
+            if (!segment.isEmpty()) {
+                node = node.children.computeIfAbsent(segment, s -> new Node());
+            }
+        }
+        node.terminal = true;
+        empty = false;
+    }
+
+    /**
+     * @return true if there are no prefixes.
+     */
+    boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * @param path A path.
+     * @return true if the path starts with any of the prefixes.
+     */
+    boolean matches(String path) {
+        Node node = root;
+        int start = 0;
+        while (!node.terminal) {
+            while (start < path.length() && path.charAt(start) == '/') {
+                start++;
+            }
+            if (start == path.length()) {
+                return false;
+            }
+
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+
+            node = node.children.get(path.substring(start, end));
+            if (node == null) {
+                return false;
+            }
+            start = end;
+        }
+        return true;
+    }
+
+    private static class Node {
+
+        final Map<String, Node> children = new HashMap<>();
+
+        boolean terminal;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz.filter;
+
+import static java.util.Collections.emptySet;
+import static org.dataconservancy.pass.authz.ConfigUtil.intValue;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker around user and role lookups, with a shadow cache of the last known good roles of each principal.
+ * <p>
+ * After {@value #PROP_BREAKER_FAILURES} consecutive failures (default 5) the breaker opens, and lookups are skipped
+ * for {@value #PROP_BREAKER_OPEN} seconds (default 30). A single lookup is then tried; if it succeeds the breaker
+ * closes, otherwise it opens again. While lookups are failing or skipped, requests get the roles last successfully
+ * looked up for their principal, as long as those are no older than {@value #PROP_SHADOW_STALENESS} seconds (default
+ * 3600). Roles are remembered for up to {@value #PROP_SHADOW_SIZE} principals (default 10000). A lookup finding no
+ * roles, as happens for a user not in the repository, does not replace roles already known for that principal.
+ * </p>
+ */
+class RoleLookupGuard implements RoleLookupGuardMXBean {
+
+    static final Logger LOG = LoggerFactory.getLogger(RoleLookupGuard.class);
+
+    public static final String PROP_BREAKER_FAILURES = "authz.breaker.failures";
+
+    public static final String PROP_BREAKER_OPEN = "authz.breaker.open";
+
+    public static final String PROP_SHADOW_SIZE = "authz.shadow.size";
+
+    public static final String PROP_SHADOW_STALENESS = "authz.shadow.staleness";
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+
+    private final long openMillis;
+
+    private final int shadowSize;
+
+    private final long maxStalenessMillis;
+
+    private final LongSupplier clock;
+
+    /* principal -> last known good roles */
+    private final Map<String, Shadow> shadow = new ConcurrentHashMap<>();
+
+    private volatile State state = State.CLOSED;
+
+    private volatile int failures;
+
+    private long openedAt;
+
+    private final LongAdder timesOpened = new LongAdder();
+
+    private final LongAdder staleServed = new LongAdder();
+
+    private final LongAdder staleUnavailable = new LongAdder();
+
+    RoleLookupGuard(int failureThreshold, long openMillis, int shadowSize, long maxStalenessMillis,
+            LongSupplier clock) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.shadowSize = shadowSize;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.clock = clock;
+    }
+
+    static RoleLookupGuard fromConfig() {
+        return new RoleLookupGuard(
+                intValue(PROP_BREAKER_FAILURES, 5),
+                TimeUnit.SECONDS.toMillis(intValue(PROP_BREAKER_OPEN, 30)),
+                intValue(PROP_SHADOW_SIZE, 10000),
+                TimeUnit.SECONDS.toMillis(intValue(PROP_SHADOW_STALENESS, 3600)),
+                System::currentTimeMillis);
+    }
+
+    /**
+     * Determine if a lookup should be attempted.
+     *
+     * @return true if the lookup should be attempted, false if the breaker is open.
+     */
+    boolean allow() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+
+        synchronized (this) {
+            if (state == State.OPEN && clock.getAsLong() - openedAt >= openMillis) {
+                LOG.info("Trying a user and role lookup after {} consecutive failures", failures);
+                state = State.HALF_OPEN;
+                return true;
+            }
+            return state == State.CLOSED;
+        }
+    }
+
+    /**
+     * Record a successful lookup.
+     *
+     * @param principal The principal looked up, or null if unknown.
+     * @param roles The roles found. If empty, any roles already known for the principal are kept.
+     */
+    void success(String principal, Set<String> roles) {
+        if (state != State.CLOSED || failures > 0) {
+            synchronized (this) {
+                if (state != State.CLOSED) {
+                    LOG.info("User and role lookups have recovered");
+                }
+                failures = 0;
+                state = State.CLOSED;
+            }
+        }
+
+        if (principal != null && !(roles.isEmpty() && shadow.containsKey(principal))) {
+            if (shadow.size() >= shadowSize && !shadow.containsKey(principal)) {
+                final Iterator<String> evict = shadow.keySet().iterator();
+                if (evict.hasNext()) {
+                    evict.next();
+                    evict.remove();
+                }
+            }
+            shadow.put(principal, new Shadow(roles, clock.getAsLong()));
+        }
+    }
+
+    /**
+     * Record a failed lookup.
+     */
+    synchronized void failure() {
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+            LOG.warn("{} consecutive user or role lookups failed, skipping lookups for {} ms", failures, openMillis);
+            state = State.OPEN;
+            openedAt = clock.getAsLong();
+            timesOpened.increment();
+        }
+    }
+
+    /**
+     * Get the last known good roles of a principal, if recent enough.
+     *
+     * @param principal The principal, or null if unknown.
+     * @return The roles, or an empty set if there are none.
+     */
+    Set<String> stale(String principal) {
+        final Shadow known = principal != null ? shadow.get(principal) : null;
+        if (known != null && clock.getAsLong() - known.time <= maxStalenessMillis) {
+            staleServed.increment();
+            return known.roles;
+        }
+
+        staleUnavailable.increment();
+        return emptySet();
+    }
+
+    @Override
+    public String getState() {
+        return state.name();
+    }
+
+    @Override
+    public synchronized int getConsecutiveFailures() {
+        return failures;
+    }
+
+    @Override
+    public long getTimesOpened() {
+        return timesOpened.sum();
+    }
+
+    @Override
+    public long getStaleServed() {
+        return staleServed.sum();
+    }
+
+    @Override
+    public long getStaleUnavailable() {
+        return staleUnavailable.sum();
+    }
+
+    @Override
+    public int getShadowSize() {
+        return shadow.size();
+    }
+
+    private static class Shadow {
+
+        final Set<String> roles;
+
+        final long time;
+
+        Shadow(Set<String> roles, long time) {
+            this.roles = roles;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz.filter;
+
+/**
+ * JMX view of the circuit breaker around user and role lookups in {@link PassRolesFilter}.
+ */
+public interface RoleLookupGuardMXBean {
+
+    /**
+     * @return CLOSED when lookups are attempted, OPEN when they are skipped, or HALF_OPEN while one is tried.
+     */
+    String getState();
+
+    /**
+     * @return Number of lookups that have failed in a row.
+     */
+    int getConsecutiveFailures();
+
+    /**
+     * @return Number of times the breaker has opened.
+     */
+    long getTimesOpened();
+
+    /**
+     * @return Number of requests given last known good roles instead of looking them up.
+     */
+    long getStaleServed();
+
+    /**
+     * @return Number of requests that could not be looked up, and had no recent enough known good roles.
+     */
+    long getStaleUnavailable();
+
+    /**
+     * @return Number of principals with known good roles.
+     */
+    int getShadowSize();
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz.filter;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.dataconservancy.pass.authz.LookupCounts;
+import org.dataconservancy.pass.authz.LookupCounts.Outcome;
+
+/**
+ * Times the phases of finding a request's roles, and counts the backend calls made.
+ * <p>
+ * The phases are parsing the roles header, looking up the user, looking up their roles, and building the new roles
+ * header. Each phase, and the total, has a {@link LatencyHistogram}. Backend calls are counted with
+ * {@link LookupCounts}, so only those made on the thread doing the lookup are counted.
+ * </p>
+ */
+class RoleLookupTimings implements RoleLookupTimingsMXBean {
+
+    enum Phase {
+        PARSE("parse"), USER("user"), ROLES("roles"), HEADER("header");
+
+        final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    /* Records nothing, for when timing is off */
+    static final Timer NONE = new Timer(null) {
+
+        @Override
+        void mark(Phase phase) {
+        }
+
+        @Override
+        String finish() {
+            return null;
+        }
+    };
+
+    private final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+
+    private final LatencyHistogram total = new LatencyHistogram();
+
+    private final LongAdder[] calls = new LongAdder[Outcome.values().length];
+
+    RoleLookupTimings() {
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Start timing a request, on the current thread.
+     *
+     * @return Timer for the request.
+     */
+    Timer start() {
+        LookupCounts.reset();
+        return new Timer(this);
+    }
+
+    @Override
+    public Map<String, Long> getPercentilesMicros() {
+        final Map<String, Long> percentiles = new LinkedHashMap<>();
+        for (final Phase phase : Phase.values()) {
+            percentiles(percentiles, phase.label, phases[phase.ordinal()]);
+        }
+        percentiles(percentiles, "total", total);
+        return percentiles;
+    }
+
+    @Override
+    public Map<String, Long> getBackendCalls() {
+        final Map<String, Long> counts = new LinkedHashMap<>();
+        for (final Outcome outcome : Outcome.values()) {
+            counts.put(outcome.name().toLowerCase(Locale.ROOT), calls[outcome.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public long getCount() {
+        return total.count();
+    }
+
+    private static void percentiles(Map<String, Long> into, String label, LatencyHistogram histogram) {
+        for (final double p : PERCENTILES) {
+            into.put(label + ".p" + (p == (long) p ? String.valueOf((long) p) : String.valueOf(p)),
+                    TimeUnit.NANOSECONDS.toMicros(histogram.percentile(p)));
+        }
+        into.put(label + ".max", TimeUnit.NANOSECONDS.toMicros(histogram.max()));
+    }
+
+    /**
+     * Times one request.
+     */
+    static class Timer {
+
+        private final RoleLookupTimings timings;
+
+        private final long[] elapsed = new long[Phase.values().length];
+
+        private final long start = System.nanoTime();
+
+        private long last = start;
+
+        Timer(RoleLookupTimings timings) {
+            this.timings = timings;
+        }
+
+        /**
+         * Attribute the time since the last mark to a phase.
+         *
+         * @param phase The phase that just ended.
+         */
+        void mark(Phase phase) {
+            final long now = System.nanoTime();
+            elapsed[phase.ordinal()] += now - last;
+            last = now;
+        }
+
+        /**
+         * Record the request's timings and backend calls.
+         *
+         * @return Value for a <code>Server-Timing</code> header.
+         */
+        String finish() {
+            final StringBuilder header = new StringBuilder();
+            for (final Phase phase : Phase.values()) {
+                timings.phases[phase.ordinal()].record(elapsed[phase.ordinal()]);
+                header.append("authz-").append(phase.label).append(";dur=")
+                        .append(String.format(Locale.ROOT, "%.3f", elapsed[phase.ordinal()] / 1e6)).append(", ");
+            }
+            timings.total.record(last - start);
+
+            header.append("authz-backend;desc=\"");
+            for (final Outcome outcome : Outcome.values()) {
+                final int count = LookupCounts.get(outcome);
+                timings.calls[outcome.ordinal()].add(count);
+                header.append(outcome.name().toLowerCase(Locale.ROOT)).append('=').append(count)
+                        .append(outcome.ordinal() < Outcome.values().length - 1 ? " " : "\"");
+            }
+            return header.toString();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz.filter;
+
+import java.util.Map;
+
+/**
+ * JMX view of the time {@link PassRolesFilter} spends finding roles.
+ */
+public interface RoleLookupTimingsMXBean {
+
+    /**
+     * @return Latency percentiles in microseconds, keyed by phase and percentile, e.g. <code>user.p99</code>.
+     */
+    Map<String, Long> getPercentilesMicros();
+
+    /**
+     * @return Number of cache lookups by outcome: <code>hit</code>, <code>load</code> or <code>wait</code>.
+     */
+    Map<String, Long> getBackendCalls();
+
+    /**
+     * @return Number of requests timed.
+     */
+    long getCount();
+}
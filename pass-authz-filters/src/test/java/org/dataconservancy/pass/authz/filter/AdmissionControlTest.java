@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class AdmissionControlTest {
+
+    final AtomicLong time = new AtomicLong();
+
+    @Test
+    public void tokenBucketTest() {
+        final AdmissionControl toTest = new AdmissionControl(2, 2, 100, 0, 0, 500, 1, time::get);
+
+        assertEquals(0, toTest.throttle("a"));
+        assertEquals(0, toTest.throttle("a"));
+        assertEquals(500, toTest.throttle("a"));
+        assertEquals(1, toTest.getThrottled());
+
+        // Other principals have buckets of their own
+        assertEquals(0, toTest.throttle("b"));
+
+        time.set(250);
+        assertEquals(250, toTest.throttle("a"));
+
+        time.set(500);
+        assertEquals(0, toTest.throttle("a"));
+
+        // Never refills past the burst
+        time.set(60000);
+        assertEquals(0, toTest.throttle("a"));
+        assertEquals(0, toTest.throttle("a"));
+        assertTrue(toTest.throttle("a") > 0);
+    }
+
+    @Test
+    public void anonymousNotThrottledTest() {
+        final AdmissionControl toTest = new AdmissionControl(1, 1, 100, 0, 0, 500, 1, time::get);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, toTest.throttle(null));
+        }
+        assertEquals(0, toTest.getTrackedPrincipals());
+    }
+
+    @Test
+    public void principalsBoundedTest() {
+        final AdmissionControl toTest = new AdmissionControl(1, 1, AdmissionControl.STRIPES, 0, 0, 500, 1,
+                time::get);
+
+        for (int i = 0; i < 1000; i++) {
+            toTest.throttle("user" + i);
+        }
+        assertTrue(toTest.getTrackedPrincipals() <= AdmissionControl.STRIPES);
+    }
+
+    @Test
+    public void concurrencyLimitTest() {
+        final AdmissionControl toTest = new AdmissionControl(0, 0, 100, 2, 10, 500, 3, time::get);
+
+        final AdmissionControl.Permit first = toTest.acquire();
+        final AdmissionControl.Permit second = toTest.acquire();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(toTest.acquire());
+        assertEquals(1, toTest.getShed());
+        assertEquals(3, toTest.retryAfter());
+
+        // Releasing twice only frees one permit
+        first.release();
+        first.release();
+        assertEquals(1, toTest.getInFlight());
+        assertNotNull(toTest.acquire());
+        assertNull(toTest.acquire());
+    }
+
+    @Test
+    public void unlimitedTest() {
+        final AdmissionControl toTest = new AdmissionControl(1, 1, 100, 0, 0, 500, 1, time::get);
+
+        for (int i = 0; i < 100; i++) {
+            assertSame(AdmissionControl.Permit.UNLIMITED, toTest.acquire());
+        }
+        assertEquals(0, toTest.getConcurrencyLimit());
+    }
+
+    @Test
+    public void slowLookupsLowerLimitTest() {
+        final AdmissionControl toTest = new AdmissionControl(0, 0, 100, 10, 100, 500, 1, time::get);
+
+        for (int i = 0; i < 20; i++) {
+            toTest.acquire().done(false, 0);
+        }
+        assertTrue(toTest.getConcurrencyLimit() < 2);
+
+        for (int i = 0; i < 20; i++) {
+            toTest.acquire().done(true, 1000000000L);
+        }
+        assertEquals(1, toTest.getConcurrencyLimit());
+    }
+
+    @Test
+    public void fastLookupsRaiseLimitTest() {
+        final AdmissionControl toTest = new AdmissionControl(0, 0, 100, 2, 4, 500, 1, time::get);
+
+        // Only raised while the permits are well used
+        for (int i = 0; i < 50; i++) {
+            final AdmissionControl.Permit first = toTest.acquire();
+            final AdmissionControl.Permit second = toTest.acquire();
+            first.done(true, 1000);
+            second.done(true, 1000);
+        }
+        assertEquals(4, toTest.getConcurrencyLimit());
+        assertEquals(0, toTest.getInFlight());
+    }
+}
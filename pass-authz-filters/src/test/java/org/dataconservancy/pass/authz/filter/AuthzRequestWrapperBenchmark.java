@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz.filter;
+
+import static java.util.Arrays.asList;
+
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.dataconservancy.pass.authz.AuthRolesProvider;
+import org.dataconservancy.pass.authz.AuthUser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the cost of wrapping a request and reading its headers, as the repository does.
+ * <p>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.dataconservancy.pass.authz.filter.AuthzRequestWrapperBenchmark</code>. Bytes allocated per
+ * request are reported as <code>gc.alloc.rate.norm</code>; the difference between the <code>wrapped</code> and
+ * <code>unwrapped</code> benchmarks is the cost of the wrapper.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class AuthzRequestWrapperBenchmark {
+
+    PassRolesFilter filter;
+
+    HttpServletRequest request;
+
+    @Setup
+    public void setUp() throws Exception {
+        final AuthUser user = new AuthUser();
+        final Set<URI> roles = new HashSet<>(asList(
+                URI.create("http://oapass.org/ns/roles/johnshopkins.edu#submitter"),
+                URI.create("http://localhost:8080/fcrepo/rest/users/ab/cd/ef/gh/abcdefgh"),
+                URI.create("info:fedora/users/ab/cd/ef/gh/abcdefgh")));
+
+        filter = new PassRolesFilter();
+        filter.userProvider = r -> user;
+        filter.rolesProvider = new AuthRolesProvider(null) {
+
+            @Override
+            public Set<URI> getRoles(AuthUser authUser) {
+                return roles;
+            }
+        };
+        filter.init(null);
+
+        final Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Host", "localhost:8080");
+        headers.put("Accept", "application/ld+json");
+        headers.put("Accept-Encoding", "gzip");
+        headers.put("Prefer", "return=representation");
+        headers.put("User-Agent", "benchmark");
+        headers.put("Eppn", "user@johnshopkins.edu");
+
+        request = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {
+            HttpServletRequest.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                case "getHeader":
+                    return headers.get(args[0]);
+                case "getHeaderNames":
+                    return Collections.enumeration(headers.keySet());
+                case "getHeaders":
+                    return headers.containsKey(args[0])
+                            ? Collections.enumeration(Collections.singletonList(headers.get(args[0])))
+                            : Collections.emptyEnumeration();
+                default:
+                    return null;
+                }
+            });
+    }
+
+    @Benchmark
+    public void unwrapped(Blackhole blackhole) {
+        readHeaders(request, blackhole);
+    }
+
+    @Benchmark
+    public void wrapped(Blackhole blackhole) {
+        readHeaders(filter.new AuthzRequestWrapper(request), blackhole);
+    }
+
+    /* Enumerate the headers a few times, then read the roles */
+    static void readHeaders(HttpServletRequest request, Blackhole blackhole) {
+        for (int i = 0; i < 3; i++) {
+            final Enumeration<String> names = request.getHeaderNames();
+            while (names.hasMoreElements()) {
+                blackhole.consume(request.getHeader(names.nextElement()));
+            }
+        }
+
+        final Enumeration<String> roles = request.getHeaders(PassRolesFilter.DEFAULT_ROLE_HEADER);
+        while (roles.hasMoreElements()) {
+            blackhole.consume(roles.nextElement());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(AuthzRequestWrapperBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
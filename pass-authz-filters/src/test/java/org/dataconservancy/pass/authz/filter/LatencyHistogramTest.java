@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    final LatencyHistogram toTest = new LatencyHistogram();
+
+    @Test
+    public void bucketBoundsTest() {
+        for (long value = 0; value < 100000; value++) {
+            final int index = LatencyHistogram.index(value);
+            assertTrue(LatencyHistogram.lowerBound(index) <= value);
+            assertTrue(LatencyHistogram.lowerBound(index + 1) > value);
+        }
+
+        // Within 12.5% at any magnitude
+        final long big = 123456789012L;
+        final long lower = LatencyHistogram.lowerBound(LatencyHistogram.index(big));
+        assertTrue(lower <= big && big - lower <= big / LatencyHistogram.SUB_BUCKETS);
+    }
+
+    @Test
+    public void percentileTest() {
+        for (long value = 1; value <= 1000; value++) {
+            toTest.record(value);
+        }
+
+        assertEquals(1000, toTest.count());
+        assertEquals(1000, toTest.max());
+        assertEquals(1000, toTest.percentile(100));
+
+        final long median = toTest.percentile(50);
+        assertTrue("median was " + median, median >= 500 && median <= 500 * 9 / 8);
+
+        final long p99 = toTest.percentile(99);
+        assertTrue("p99 was " + p99, p99 >= 990 && p99 <= 1000);
+    }
+
+    @Test
+    public void emptyTest() {
+        assertEquals(0, toTest.count());
+        assertEquals(0, toTest.percentile(99));
+    }
+}
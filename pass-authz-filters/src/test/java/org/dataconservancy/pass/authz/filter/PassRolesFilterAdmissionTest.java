@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz.filter;
+
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.EPPN_HEADER;
+import static org.dataconservancy.pass.authz.filter.AdmissionControl.PROP_BURST;
+import static org.dataconservancy.pass.authz.filter.AdmissionControl.PROP_CONCURRENCY;
+import static org.dataconservancy.pass.authz.filter.AdmissionControl.PROP_RATE;
+import static org.dataconservancy.pass.authz.filter.PassRolesFilter.PROP_ALLOW_EXTERNAL_ROLES;
+import static org.dataconservancy.pass.authz.filter.PassRolesFilter.RETRY_AFTER;
+import static org.dataconservancy.pass.authz.filter.PassRolesFilter.SC_TOO_MANY_REQUESTS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.dataconservancy.pass.authz.AuthRolesProvider;
+import org.dataconservancy.pass.authz.AuthUserProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PassRolesFilterAdmissionTest {
+
+    @Mock
+    HttpServletRequest request;
+
+    @Mock
+    HttpServletResponse response;
+
+    @Mock
+    AuthUserProvider userProvider;
+
+    @Mock
+    AuthRolesProvider rolesProvider;
+
+    @Mock
+    FilterChain chain;
+
+    PassRolesFilter toTest;
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty(PROP_ALLOW_EXTERNAL_ROLES, "false");
+        System.setProperty(PROP_RATE, "0.5");
+        System.setProperty(PROP_BURST, "2");
+        System.setProperty(PROP_CONCURRENCY, "1");
+
+        toTest = new PassRolesFilter();
+        toTest.rolesProvider = rolesProvider;
+        toTest.userProvider = userProvider;
+        toTest.init(null);
+
+        when(request.getAttribute(EPPN_HEADER)).thenReturn("harvester@example.org");
+    }
+
+    @After
+    public void tearDown() {
+        toTest.destroy();
+        System.clearProperty(PROP_RATE);
+        System.clearProperty(PROP_BURST);
+        System.clearProperty(PROP_CONCURRENCY);
+    }
+
+    @Test
+    public void throttlePrincipalTest() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            toTest.doFilter(request, response, chain);
+        }
+
+        verify(chain, times(2)).doFilter(any(), eq(response));
+        verify(response).setHeader(RETRY_AFTER, "2");
+        verify(response).sendError(SC_TOO_MANY_REQUESTS);
+        assertEquals(1, toTest.admission.getThrottled());
+    }
+
+    @Test
+    public void shedWhenLookupsBusyTest() throws Exception {
+        final AdmissionControl.Permit busy = toTest.admission.acquire();
+        assertNotNull(busy);
+
+        toTest.doFilter(request, response, chain);
+
+        verify(chain, never()).doFilter(any(), any());
+        verify(response).setHeader(RETRY_AFTER, "1");
+        verify(response).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+
+        busy.release();
+        toTest.doFilter(request, response, chain);
+        verify(chain).doFilter(any(), eq(response));
+        assertEquals(0, toTest.admission.getInFlight());
+    }
+
+    @Test
+    public void releaseWhenBreakerOpenTest() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            toTest.roleLookups.failure();
+        }
+
+        final AtomicInteger inFlight = new AtomicInteger(-1);
+        doAnswer(invocation -> {
+            final HttpServletRequest wrapped = invocation.getArgument(0);
+            wrapped.getHeader(toTest.authzHeader);
+            inFlight.set(toTest.admission.getInFlight());
+            return null;
+        }).when(chain).doFilter(any(), eq(response));
+
+        toTest.doFilter(request, response, chain);
+
+        // Skipping the lookup frees the permit, rather than holding it for the rest of the request
+        assertEquals(0, inFlight.get());
+        verify(userProvider, never()).getUser(any());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz.filter;
+
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.EPPN_HEADER;
+import static org.dataconservancy.pass.authz.filter.PassRolesFilter.PROP_ALLOW_EXTERNAL_ROLES;
+import static org.dataconservancy.pass.authz.filter.PassRolesFilter.PROP_BYPASS_ANONYMOUS;
+import static org.dataconservancy.pass.authz.filter.PassRolesFilter.PROP_BYPASS_METHODS;
+import static org.dataconservancy.pass.authz.filter.PassRolesFilter.PROP_BYPASS_PATHS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.dataconservancy.pass.authz.AuthRolesProvider;
+import org.dataconservancy.pass.authz.AuthUserProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PassRolesFilterBypassTest {
+
+    @Mock
+    HttpServletRequest request;
+
+    @Mock
+    HttpServletResponse response;
+
+    @Mock
+    AuthUserProvider userProvider;
+
+    @Mock
+    AuthRolesProvider rolesProvider;
+
+    @Mock
+    FilterChain chain;
+
+    @Captor
+    ArgumentCaptor<HttpServletRequest> requestCaptor;
+
+    PassRolesFilter toTest;
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty(PROP_ALLOW_EXTERNAL_ROLES, "false");
+        System.setProperty(PROP_BYPASS_METHODS, "options, head");
+        System.setProperty(PROP_BYPASS_PATHS, "/static,/health");
+        System.setProperty(PROP_BYPASS_ANONYMOUS, "true");
+
+        toTest = new PassRolesFilter();
+        toTest.rolesProvider = rolesProvider;
+        toTest.userProvider = userProvider;
+        toTest.init(null);
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(PROP_BYPASS_METHODS);
+        System.clearProperty(PROP_BYPASS_PATHS);
+        System.clearProperty(PROP_BYPASS_ANONYMOUS);
+    }
+
+    @Test
+    public void bypassMethodTest() throws Exception {
+        when(request.getMethod()).thenReturn("OPTIONS");
+        assertTrue(toTest.bypass(request));
+    }
+
+    @Test
+    public void bypassPathTest() throws Exception {
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getServletPath()).thenReturn("/health");
+        when(request.getPathInfo()).thenReturn("/ready");
+        assertTrue(toTest.bypass(request));
+    }
+
+    @Test
+    public void noBypassNormalizedPathTest() throws Exception {
+        // e.g. a request for /static/../fcrepo/rest/submissions
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getServletPath()).thenReturn("/fcrepo");
+        when(request.getPathInfo()).thenReturn("/rest/submissions");
+        when(request.getAttribute(EPPN_HEADER)).thenReturn("user@example.org");
+        assertFalse(toTest.bypass(request));
+    }
+
+    @Test
+    public void bypassAnonymousTest() throws Exception {
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getServletPath()).thenReturn("/fcrepo");
+        when(request.getPathInfo()).thenReturn("/rest/submissions");
+        assertTrue(toTest.bypass(request));
+
+        when(request.getAttribute(EPPN_HEADER)).thenReturn("user@example.org");
+        assertFalse(toTest.bypass(request));
+    }
+
+    @Test
+    public void bypassStripsExternalRolesTest() throws Exception {
+        when(request.getMethod()).thenReturn("HEAD");
+        when(request.getHeader(toTest.authzHeader)).thenReturn("foo");
+
+        toTest.doFilter(request, response, chain);
+        verify(chain).doFilter(requestCaptor.capture(), eq(response));
+
+        assertEquals("", requestCaptor.getValue().getHeader(toTest.authzHeader));
+        verifyZeroInteractions(userProvider, rolesProvider);
+    }
+}
@@ -16,20 +16,33 @@
 
 package org.dataconservancy.pass.authz.filter;
 
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.EPPN_HEADER;
 import static org.dataconservancy.pass.authz.filter.PassRolesFilter.PROP_ALLOW_EXTERNAL_ROLES;
+import static org.dataconservancy.pass.authz.filter.PassRolesFilter.PROP_ASYNC;
+import static org.dataconservancy.pass.authz.filter.PassRolesFilter.PROP_TIMING_HEADER;
+import static org.dataconservancy.pass.authz.filter.PassRolesFilter.ROLES_ATTRIBUTE;
+import static org.dataconservancy.pass.authz.filter.PassRolesFilter.SERVER_TIMING;
+import static org.dataconservancy.pass.authz.filter.RoleLookupGuard.PROP_BREAKER_FAILURES;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.net.URI;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.FilterChain;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -38,6 +51,7 @@ import org.dataconservancy.pass.authz.AuthRolesProvider;
 import org.dataconservancy.pass.authz.AuthUser;
 import org.dataconservancy.pass.authz.AuthUserProvider;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -67,9 +81,15 @@ public class PassRolesFilterTest {
     @Mock
     FilterChain chain;
 
+    @Mock
+    AsyncContext asyncContext;
+
     @Captor
     ArgumentCaptor<HttpServletRequest> requestCaptor;
 
+    @Captor
+    ArgumentCaptor<Object> attributeCaptor;
+
     AuthUser authUser;
 
     Set<URI> roles;
@@ -89,6 +109,14 @@ public class PassRolesFilterTest {
         when(rolesProvider.getRoles(eq(authUser))).thenReturn(roles);
     }
 
+    @After
+    public void tearDown() {
+        toTest.destroy();
+        System.clearProperty(PROP_ASYNC);
+        System.clearProperty(PROP_BREAKER_FAILURES);
+        System.clearProperty(PROP_TIMING_HEADER);
+    }
+
     @Test
     public void removeExternalAuthzTest() throws Exception {
         System.setProperty(PROP_ALLOW_EXTERNAL_ROLES, "false");
@@ -160,4 +188,188 @@ public class PassRolesFilterTest {
         assertTrue(observedRoles.contains(AUTHZ_VALUE_1));
         assertTrue(observedRoles.contains(AUTHZ_VALUE_2));
     }
+
+    @Test
+    public void lazyRolesTest() throws Exception {
+        roles.add(URI.create("foo"));
+        toTest.init(null);
+
+        toTest.doFilter(request, response, chain);
+        verify(chain).doFilter(requestCaptor.capture(), eq(response));
+
+        verify(userProvider, never()).getUser(any(HttpServletRequest.class));
+
+        final HttpServletRequest wrapped = requestCaptor.getValue();
+        assertEquals("foo", wrapped.getHeader(toTest.authzHeader));
+        assertEquals("foo", wrapped.getHeaders(toTest.authzHeader).nextElement());
+
+        verify(userProvider, times(1)).getUser(any(HttpServletRequest.class));
+        verify(rolesProvider, times(1)).getRoles(authUser);
+    }
+
+    @Test
+    public void asyncRolesTest() throws Exception {
+        System.setProperty(PROP_ASYNC, "true");
+        roles.add(URI.create("foo"));
+        toTest.init(null);
+
+        when(request.isAsyncSupported()).thenReturn(true);
+        when(request.startAsync(any(), any())).thenReturn(asyncContext);
+
+        toTest.doFilter(request, response, chain);
+
+        verify(asyncContext, timeout(5000)).dispatch();
+        verify(request).setAttribute(eq(ROLES_ATTRIBUTE), attributeCaptor.capture());
+        verify(chain, never()).doFilter(any(), any());
+
+        // The dispatched request continues down the chain, with the roles found.
+        when(request.getAttribute(ROLES_ATTRIBUTE)).thenReturn(attributeCaptor.getValue());
+        toTest.doFilter(request, response, chain);
+
+        verify(chain).doFilter(requestCaptor.capture(), eq(response));
+        assertEquals("foo", requestCaptor.getValue().getHeader(toTest.authzHeader));
+        verify(userProvider, times(1)).getUser(any(HttpServletRequest.class));
+    }
+
+    @Test
+    public void asyncWithoutAsyncMappingTest() throws Exception {
+        System.setProperty(PROP_ASYNC, "true");
+        roles.add(URI.create("foo"));
+        toTest.init(null);
+
+        when(request.isAsyncSupported()).thenReturn(true);
+        when(request.getHeader(toTest.authzHeader)).thenReturn("admin");
+        when(request.startAsync(requestCaptor.capture(), eq(response))).thenReturn(asyncContext);
+
+        toTest.doFilter(request, response, chain);
+        verify(asyncContext, timeout(5000)).dispatch();
+
+        // Without the filter seeing the ASYNC dispatch, what is dispatched must still carry the roles found
+        final HttpServletRequest dispatched = requestCaptor.getValue();
+        assertEquals("foo", dispatched.getHeader(toTest.authzHeader));
+        verify(userProvider, times(1)).getUser(any(HttpServletRequest.class));
+        verify(chain, never()).doFilter(any(), any());
+    }
+
+    @Test
+    public void asyncCachedRolesTest() throws Exception {
+        System.setProperty(PROP_ASYNC, "true");
+        roles.add(URI.create("foo"));
+        toTest.init(null);
+
+        when(request.isAsyncSupported()).thenReturn(true);
+        when(userProvider.isCached(request)).thenReturn(true);
+        when(rolesProvider.isCached(authUser)).thenReturn(true);
+
+        toTest.doFilter(request, response, chain);
+
+        verify(request, never()).startAsync(any(), any());
+        verify(chain).doFilter(requestCaptor.capture(), eq(response));
+        assertEquals("foo", requestCaptor.getValue().getHeader(toTest.authzHeader));
+
+        // The user found while checking the cache is used for the roles
+        verify(userProvider, times(1)).getUser(any(HttpServletRequest.class));
+    }
+
+    @Test
+    public void asyncServerTimingTest() throws Exception {
+        System.setProperty(PROP_ASYNC, "true");
+        System.setProperty(PROP_TIMING_HEADER, "true");
+        roles.add(URI.create("foo"));
+        toTest.init(null);
+
+        when(request.isAsyncSupported()).thenReturn(true);
+        when(request.startAsync(any(), any())).thenReturn(asyncContext);
+
+        toTest.doFilter(request, response, chain);
+
+        verify(asyncContext, timeout(5000)).dispatch();
+        verify(response).addHeader(eq(SERVER_TIMING), contains("authz-user;dur="));
+    }
+
+    @Test
+    public void headerReuseTest() throws Exception {
+        roles.add(URI.create("foo"));
+        toTest.init(null);
+
+        when(request.getHeaderNames()).thenReturn(Collections.enumeration(Arrays.asList("Accept")));
+
+        toTest.doFilter(request, response, chain);
+        toTest.doFilter(request, response, chain);
+        verify(chain, times(2)).doFilter(requestCaptor.capture(), eq(response));
+
+        final HttpServletRequest first = requestCaptor.getAllValues().get(0);
+        final HttpServletRequest second = requestCaptor.getAllValues().get(1);
+
+        assertEquals(Arrays.asList("Accept", toTest.authzHeader), Collections.list(first.getHeaderNames()));
+        assertEquals(Arrays.asList("Accept", toTest.authzHeader), Collections.list(first.getHeaderNames()));
+        verify(request, times(1)).getHeaderNames();
+
+        assertSame(first.getHeader(toTest.authzHeader), second.getHeader(toTest.authzHeader));
+        assertEquals("foo", Collections.list(first.getHeaders(toTest.authzHeader)).get(0));
+    }
+
+    @Test
+    public void staleRolesTest() throws Exception {
+        System.setProperty(PROP_BREAKER_FAILURES, "2");
+        roles.add(URI.create("foo"));
+        toTest.init(null);
+
+        when(request.getAttribute(EPPN_HEADER)).thenReturn("user@example.org");
+        when(rolesProvider.getRoles(eq(authUser))).thenReturn(roles).thenThrow(new RuntimeException("Fedora is down"));
+
+        // Succeeds, then fails twice and opens the breaker, then skips the lookup
+        for (int i = 0; i < 4; i++) {
+            toTest.doFilter(request, response, chain);
+        }
+        verify(chain, times(4)).doFilter(requestCaptor.capture(), eq(response));
+
+        for (final HttpServletRequest wrapped : requestCaptor.getAllValues()) {
+            assertEquals("foo", wrapped.getHeader(toTest.authzHeader));
+        }
+
+        verify(rolesProvider, times(3)).getRoles(authUser);
+        assertEquals("OPEN", toTest.roleLookups.getState());
+        assertEquals(3, toTest.roleLookups.getStaleServed());
+    }
+
+    @Test
+    public void failedUserLookupTest() throws Exception {
+        System.setProperty(PROP_BREAKER_FAILURES, "2");
+        roles.add(URI.create("foo"));
+        toTest.init(null);
+
+        when(request.getAttribute(EPPN_HEADER)).thenReturn("user@example.org");
+        when(userProvider.getUser(any(HttpServletRequest.class))).thenReturn(authUser).thenThrow(
+                new RuntimeException("Fedora is down"));
+
+        for (int i = 0; i < 4; i++) {
+            toTest.doFilter(request, response, chain);
+        }
+        verify(chain, times(4)).doFilter(requestCaptor.capture(), eq(response));
+
+        for (final HttpServletRequest wrapped : requestCaptor.getAllValues()) {
+            assertEquals("foo", wrapped.getHeader(toTest.authzHeader));
+        }
+
+        verify(userProvider, times(3)).getUser(any(HttpServletRequest.class));
+        assertEquals("OPEN", toTest.roleLookups.getState());
+    }
+
+    @Test
+    public void serverTimingTest() throws Exception {
+        System.setProperty(PROP_TIMING_HEADER, "true");
+        roles.add(URI.create("foo"));
+        toTest.init(null);
+
+        toTest.doFilter(request, response, chain);
+        verify(chain).doFilter(requestCaptor.capture(), eq(response));
+
+        verify(response, never()).addHeader(eq(SERVER_TIMING), any());
+        assertEquals("foo", requestCaptor.getValue().getHeader(toTest.authzHeader));
+
+        verify(response).addHeader(eq(SERVER_TIMING), contains("authz-user;dur="));
+        verify(response).addHeader(eq(SERVER_TIMING), contains("authz-backend;desc="));
+        assertEquals(1, toTest.timings.getCount());
+    }
 }
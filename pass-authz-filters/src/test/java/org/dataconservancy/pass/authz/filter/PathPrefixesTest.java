@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz.filter;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PathPrefixesTest {
+
+    @Test
+    public void matchTest() {
+        final PathPrefixes toTest = new PathPrefixes();
+        toTest.add("/static");
+        toTest.add("/fcrepo/rest/health/");
+
+        assertTrue(toTest.matches("/static"));
+        assertTrue(toTest.matches("/static/"));
+        assertTrue(toTest.matches("/static/js/app.js"));
+        assertTrue(toTest.matches("/fcrepo/rest/health"));
+        assertTrue(toTest.matches("//fcrepo/rest/health/check"));
+
+        assertFalse(toTest.matches("/statically"));
+        assertFalse(toTest.matches("/fcrepo/rest"));
+        assertFalse(toTest.matches("/fcrepo/rest/submissions"));
+        assertFalse(toTest.matches("/"));
+        assertFalse(toTest.matches(""));
+    }
+
+    @Test
+    public void emptyTest() {
+        final PathPrefixes toTest = new PathPrefixes();
+        assertTrue(toTest.isEmpty());
+        assertFalse(toTest.matches("/anything"));
+
+        toTest.add("/");
+        assertFalse(toTest.isEmpty());
+        assertTrue(toTest.matches("/anything"));
+    }
+}
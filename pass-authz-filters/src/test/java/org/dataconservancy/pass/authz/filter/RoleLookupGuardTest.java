@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz.filter;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class RoleLookupGuardTest {
+
+    static final Set<String> ROLES = new HashSet<>(asList("role1", "role2"));
+
+    final AtomicLong time = new AtomicLong();
+
+    final RoleLookupGuard toTest = new RoleLookupGuard(2, 1000, 10, 5000, time::get);
+
+    @Test
+    public void opensAfterFailuresTest() {
+        assertTrue(toTest.allow());
+        toTest.failure();
+        assertEquals("CLOSED", toTest.getState());
+        assertTrue(toTest.allow());
+
+        toTest.failure();
+        assertEquals("OPEN", toTest.getState());
+        assertFalse(toTest.allow());
+        assertEquals(1, toTest.getTimesOpened());
+    }
+
+    @Test
+    public void halfOpenTest() {
+        toTest.failure();
+        toTest.failure();
+
+        time.set(1000);
+        assertTrue(toTest.allow());
+        assertEquals("HALF_OPEN", toTest.getState());
+
+        // Only one trial at a time
+        assertFalse(toTest.allow());
+
+        toTest.failure();
+        assertEquals("OPEN", toTest.getState());
+        assertFalse(toTest.allow());
+
+        time.set(2000);
+        assertTrue(toTest.allow());
+        toTest.success(null, ROLES);
+        assertEquals("CLOSED", toTest.getState());
+        assertEquals(0, toTest.getConsecutiveFailures());
+        assertTrue(toTest.allow());
+    }
+
+    @Test
+    public void successResetsFailuresTest() {
+        toTest.failure();
+        toTest.success(null, ROLES);
+        toTest.failure();
+        assertEquals("CLOSED", toTest.getState());
+    }
+
+    @Test
+    public void staleRolesTest() {
+        toTest.success("user@example.org", ROLES);
+
+        time.set(5000);
+        assertEquals(ROLES, toTest.stale("user@example.org"));
+        assertTrue(toTest.stale("other@example.org").isEmpty());
+        assertTrue(toTest.stale(null).isEmpty());
+
+        time.set(5001);
+        assertTrue(toTest.stale("user@example.org").isEmpty());
+
+        assertEquals(1, toTest.getStaleServed());
+        assertEquals(3, toTest.getStaleUnavailable());
+    }
+
+    @Test
+    public void keepKnownRolesTest() {
+        toTest.success("user@example.org", ROLES);
+        toTest.success("user@example.org", new HashSet<>());
+        assertEquals(ROLES, toTest.stale("user@example.org"));
+
+        toTest.success("other@example.org", new HashSet<>());
+        assertTrue(toTest.stale("other@example.org").isEmpty());
+        assertEquals(2, toTest.getShadowSize());
+    }
+
+    @Test
+    public void shadowSizeTest() {
+        for (int i = 0; i < 20; i++) {
+            toTest.success("user" + i, ROLES);
+        }
+        assertEquals(10, toTest.getShadowSize());
+    }
+}
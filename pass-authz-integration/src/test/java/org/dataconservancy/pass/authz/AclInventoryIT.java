@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.List;
+
+import org.fcrepo.client.FcrepoClient;
+
+import org.dataconservancy.pass.authz.tools.AclInventory;
+
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class AclInventoryIT extends FcrepoIT {
+
+    static final URI ROLE_1 = URI.create("http://example.org/auth/inventoryRole1");
+
+    static final URI ROLE_2 = URI.create("http://example.org/auth/inventoryRole2");
+
+    static final URI ACL_CONTAINER = URI.create(FCREPO_BASE_URI + System.getProperty("acl.base", "acls"));
+
+    static CloseableHttpClient http = getHttpClient();
+
+    static FcrepoClient repo = SharedClients.fcrepoClient("fedoraAdmin", "moo");
+
+    ACLManager acls = new ACLManager(repo);
+
+    @BeforeClass
+    public static void addAclContainer() throws Exception {
+        AclManagerIT.addAclContainer();
+    }
+
+    @Test
+    public void inventoryTest() throws Exception {
+        final URI root = newObject(URI.create(FCREPO_BASE_URI));
+
+        final URI direct = newObject(root);
+        final URI acl = acls.addPermissions(direct).grantRead(asList(ROLE_1)).perform();
+
+        final URI shared = newObject(newObject(root));
+        final URI sharedAcl = acls.sharePermissions(shared).grantRead(asList(ROLE_2)).grantWrite(asList(ROLE_1))
+                .perform();
+
+        final StringWriter out = new StringWriter();
+        final AclInventory.Summary summary = new AclInventory(new AclReader(repo), ACL_CONTAINER, asList(root), 4)
+                .write(out);
+
+        final List<String> rows = asList(out.toString().split("\n"));
+        assertTrue(rows.contains(String.join(",", ROLE_1.toString(), direct.toString(), "r", acl.toString())));
+        assertTrue(rows.contains(String.join(",", ROLE_2.toString(), shared.toString(), "r", sharedAcl.toString())));
+        assertTrue(rows.contains(String.join(",", ROLE_1.toString(), shared.toString(), "w", sharedAcl.toString())));
+
+        assertTrue(summary.getResources() >= 4);
+        assertTrue(summary.resourcesPerSecond() > 0);
+    }
+
+    static URI newObject(URI parent) throws Exception {
+        return http.execute(new HttpPost(parent), r -> {
+            assertSuccess(r);
+            return URI.create(r.getFirstHeader("Location").getValue());
+        });
+    }
+}
@@ -18,6 +18,7 @@ package org.dataconservancy.pass.authz;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import java.net.URI;
 import java.util.Arrays;
@@ -28,7 +29,9 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -187,4 +190,151 @@ public class AclManagerIT extends FcrepoIT {
 
     }
 
+    @Test
+    public void transactionTest() throws Exception {
+        final HttpPost post = new HttpPost(FCREPO_BASE_URI);
+
+        final URI testObject = http.execute(post, r -> {
+            assertSuccess(r);
+            return URI.create(r.getFirstHeader("Location").getValue());
+        });
+
+        final HttpGet getTestObjectNoRole = new HttpGet(testObject);
+
+        final HttpGet getTestObjectWithRole = new HttpGet(testObject);
+        getTestObjectWithRole.addHeader(AUTH_ROLE_HEADER, AUTH_ROLE.toString());
+
+        final URI acl = toTest.addPermissions(testObject)
+                .inTransaction()
+                .grantRead(Arrays.asList(AUTH_ROLE)).perform();
+
+        // The committed ACL is visible outside the transaction, and in effect
+        assertEquals(acl, toTest.addPermissions(testObject).grantRead(Arrays.asList(AUTH_ROLE)).perform());
+
+        userHttp.execute(getTestObjectNoRole, r -> {
+            assertEquals(403, r.getStatusLine().getStatusCode());
+            return null;
+        });
+
+        userHttp.execute(getTestObjectWithRole, r -> {
+            assertSuccess(r);
+            return null;
+        });
+    }
+
+    @Test
+    public void transactionRollbackTest() throws Exception {
+
+        // A binary can't be PATCHed, so linking an ACL to it fails after the ACL has been created
+        final HttpPost post = new HttpPost(FCREPO_BASE_URI);
+        post.setEntity(new StringEntity("moo"));
+        post.addHeader("Content-Type", "text/plain");
+
+        final URI binary = http.execute(post, r -> {
+            assertSuccess(r);
+            return URI.create(r.getFirstHeader("Location").getValue());
+        });
+
+        final int aclCount = countAcls();
+
+        try {
+            toTest.addPermissions(binary).inTransaction().grantRead(Arrays.asList(AUTH_ROLE)).perform();
+            fail("Should not be able to link an ACL to a binary");
+        } catch (final RuntimeException e) {
+            // expected
+        }
+
+        // The ACL created in the transaction must have been rolled back
+        assertEquals(aclCount, countAcls());
+    }
+
+    @Test
+    public void setPermissionsIdempotentTest() throws Exception {
+        final URI AUTH_ROLE_2 = URI.create("http://example.org/auth/myRole2");
+        final HttpPost post = new HttpPost(FCREPO_BASE_URI);
+
+        final URI testObject = http.execute(post, r -> {
+            assertSuccess(r);
+            return URI.create(r.getFirstHeader("Location").getValue());
+        });
+
+        final URI acl = toTest.setPermissions(testObject)
+                .grantRead(asList(AUTH_ROLE, AUTH_ROLE_2))
+                .grantWrite(asList(AUTH_ROLE)).perform();
+
+        final int authorizations = countChildren(acl);
+
+        // Setting the same permissions again writes nothing
+        assertEquals(acl, toTest.setPermissions(testObject)
+                .grantRead(asList(AUTH_ROLE, AUTH_ROLE_2))
+                .grantWrite(asList(AUTH_ROLE)).perform());
+        assertEquals(authorizations, countChildren(acl));
+
+        // Revoking the second role leaves only what is needed for the first
+        toTest.setPermissions(testObject)
+                .grantRead(asList(AUTH_ROLE))
+                .grantWrite(asList(AUTH_ROLE))
+                .revokeOthers().perform();
+
+        final HttpGet getTestObjectWithRole2 = new HttpGet(testObject);
+        getTestObjectWithRole2.addHeader(AUTH_ROLE_HEADER, AUTH_ROLE_2.toString());
+
+        userHttp.execute(getTestObjectWithRole2, r -> {
+            assertEquals(403, r.getStatusLine().getStatusCode());
+            return null;
+        });
+    }
+
+    @Test
+    public void sharedAclTest() throws Exception {
+        final URI[] objects = new URI[2];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = http.execute(new HttpPost(FCREPO_BASE_URI), r -> {
+                assertSuccess(r);
+                return URI.create(r.getFirstHeader("Location").getValue());
+            });
+        }
+
+        final URI acl = toTest.sharePermissions(objects[0]).grantRead(asList(AUTH_ROLE)).perform();
+        final int aclCount = countAcls();
+
+        // The second object reuses the same ACL
+        assertEquals(acl, toTest.sharePermissions(objects[1]).grantRead(asList(AUTH_ROLE)).perform());
+        assertEquals(aclCount, countAcls());
+
+        for (final URI object : objects) {
+            final HttpGet getNoRole = new HttpGet(object);
+            userHttp.execute(getNoRole, r -> {
+                assertEquals(403, r.getStatusLine().getStatusCode());
+                return null;
+            });
+
+            final HttpGet getWithRole = new HttpGet(object);
+            getWithRole.addHeader(AUTH_ROLE_HEADER, AUTH_ROLE.toString());
+            userHttp.execute(getWithRole, r -> {
+                assertSuccess(r);
+                return null;
+            });
+        }
+    }
+
+    static int countAcls() throws Exception {
+        return countChildren(URI.create(FCREPO_BASE_URI + System.getProperty("acl.base", "acls")));
+    }
+
+    static int countChildren(URI container) throws Exception {
+        final HttpGet get = new HttpGet(container);
+        get.addHeader("Accept", "application/n-triples");
+
+        return http.execute(get, r -> {
+            assertSuccess(r);
+            int count = 0;
+            for (final String line : EntityUtils.toString(r.getEntity()).split("\n")) {
+                if (line.contains("<http://www.w3.org/ns/ldp#contains>")) {
+                    count++;
+                }
+            }
+            return count;
+        });
+    }
 }
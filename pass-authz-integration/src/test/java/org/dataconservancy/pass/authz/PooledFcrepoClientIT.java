@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.fcrepo.client.FcrepoClient;
+import org.fcrepo.client.FcrepoResponse;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Exercises the repository clients from {@link SharedClients}, which share a pool of connections.
+ */
+public class PooledFcrepoClientIT extends FcrepoIT {
+
+    static final String AUTH_ROLE_HEADER = "pass-roles";
+
+    static final URI AUTH_ROLE = URI.create("http://example.org/auth/pooledRole");
+
+    // fedoraAdmin
+    static CloseableHttpClient http = getHttpClient();
+
+    // An unprivileged user
+    static CloseableHttpClient userHttp = getAuthClient("admin", "moo");
+
+    FcrepoClient repo = SharedClients.fcrepoClient("fedoraAdmin", "moo");
+
+    @BeforeClass
+    public static void addAclContainer() throws Exception {
+        final HttpPut put = new HttpPut(FCREPO_BASE_URI + System.getProperty("acl.base", "acls"));
+        final HttpHead head = new HttpHead(put.getURI());
+
+        final int code = http.execute(head, r -> {
+            return r.getStatusLine().getStatusCode();
+        });
+
+        if (code == 404) {
+            http.execute(put, r -> {
+                assertSuccess(r);
+                return URI.create(r.getFirstHeader("Location").getValue());
+            });
+        }
+    }
+
+    @Test
+    public void sameCredentialsTest() {
+        assertSame(repo, SharedClients.fcrepoClient("fedoraAdmin", "moo"));
+    }
+
+    @Test
+    public void credentialsTest() throws Exception {
+        final URI testObject = createObject();
+
+        try (FcrepoResponse response = repo.get(testObject).perform()) {
+            assertEquals(200, response.getStatusCode());
+        }
+
+        try (FcrepoResponse response = SharedClients.fcrepoClient("fedoraAdmin", "wrong").get(testObject)
+                .perform()) {
+            assertEquals(401, response.getStatusCode());
+        }
+    }
+
+    @Test
+    public void concurrentRequestsTest() throws Exception {
+        final URI testObject = createObject();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // Many more requests than connections, each returning its connection to the pool once closed
+        try {
+            final List<Future<Integer>> statuses = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                statuses.add(executor.submit(() -> {
+                    try (FcrepoResponse response = repo.head(testObject).perform()) {
+                        return response.getStatusCode();
+                    }
+                }));
+            }
+
+            for (final Future<Integer> status : statuses) {
+                assertEquals(200, status.get().intValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void aclManagerTest() throws Exception {
+        final URI testObject = createObject();
+        final ACLManager toTest = new ACLManager(repo);
+
+        final HttpGet getTestObjectNoRole = new HttpGet(testObject);
+
+        final HttpGet getTestObjectWithRole = new HttpGet(testObject);
+        getTestObjectWithRole.addHeader(AUTH_ROLE_HEADER, AUTH_ROLE.toString());
+
+        toTest.addPermissions(testObject).grantRead(asList(AUTH_ROLE)).perform();
+
+        userHttp.execute(getTestObjectNoRole, r -> {
+            assertEquals(403, r.getStatusLine().getStatusCode());
+            return null;
+        });
+
+        userHttp.execute(getTestObjectWithRole, r -> {
+            assertSuccess(r);
+            return null;
+        });
+    }
+
+    static URI createObject() throws Exception {
+        return http.execute(new HttpPost(FCREPO_BASE_URI), r -> {
+            assertSuccess(r);
+            return URI.create(r.getFirstHeader("Location").getValue());
+        });
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.net.URI;
+import java.util.List;
+
+import org.fcrepo.client.FcrepoClient;
+
+import org.dataconservancy.pass.authz.WebAcIndex.Mode;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that the index makes the same decisions as the repository.
+ */
+public class WebAcIndexIT extends FcrepoIT {
+
+    static final String AUTH_ROLE_HEADER = "pass-roles";
+
+    static final List<URI> ROLES = asList(
+            URI.create("http://example.org/auth/indexRole1"),
+            URI.create("http://example.org/auth/indexRole2"),
+            URI.create("http://example.org/auth/indexRole3"));
+
+    static final URI ACL_CONTAINER = URI.create(FCREPO_BASE_URI + System.getProperty("acl.base", "acls"));
+
+    // fedoraAdmin
+    static CloseableHttpClient http = getHttpClient();
+
+    // An unprivileged user
+    static CloseableHttpClient userHttp = getAuthClient("admin", "moo");
+
+    static FcrepoClient repo = SharedClients.fcrepoClient("fedoraAdmin", "moo");
+
+    ACLManager acls = new ACLManager(repo);
+
+    @BeforeClass
+    public static void addAclContainer() throws Exception {
+        AclManagerIT.addAclContainer();
+    }
+
+    @Test
+    public void consistencyTest() throws Exception {
+        final URI readByFirst = newObject();
+        acls.addPermissions(readByFirst).grantRead(ROLES.subList(0, 1)).perform();
+
+        final URI readByFirstTwo = newObject();
+        acls.setPermissions(readByFirstTwo).grantRead(ROLES.subList(0, 2)).perform();
+
+        final URI writeOnly = newObject();
+        acls.addPermissions(writeOnly).grantWrite(ROLES.subList(2, 3)).perform();
+
+        final URI shared = newObject();
+        final URI sharedAcl = acls.sharePermissions(shared).grantRead(ROLES.subList(1, 3)).perform();
+
+        final WebAcIndex index = WebAcIndex.load(new AclReader(repo), ACL_CONTAINER);
+        index.link(shared, sharedAcl);
+
+        for (final URI resource : asList(readByFirst, readByFirstTwo, writeOnly, shared)) {
+            for (final URI role : ROLES) {
+                assertEquals(String.format("Decision for <%s> reading <%s>", role, resource),
+                        canRead(role, resource), index.isAuthorized(asList(role), resource, Mode.READ));
+            }
+        }
+    }
+
+    static URI newObject() throws Exception {
+        return http.execute(new HttpPost(FCREPO_BASE_URI), r -> {
+            assertSuccess(r);
+            return URI.create(r.getFirstHeader("Location").getValue());
+        });
+    }
+
+    static boolean canRead(URI role, URI resource) throws Exception {
+        final HttpGet get = new HttpGet(resource);
+        get.addHeader(AUTH_ROLE_HEADER, role.toString());
+
+        return userHttp.execute(get, r -> {
+            final int status = r.getStatusLine().getStatusCode();
+            if (status != 200 && status != 403) {
+                throw new AssertionError("Unexpected status " + status + " reading " + resource);
+            }
+            return status == 200;
+        });
+    }
+}
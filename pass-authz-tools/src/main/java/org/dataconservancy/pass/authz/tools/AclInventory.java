@@ -0,0 +1,382 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz.tools;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptySet;
+import static java.util.stream.Collectors.toList;
+import static org.dataconservancy.pass.authz.Authorization.MODE_APPEND;
+import static org.dataconservancy.pass.authz.Authorization.MODE_READ;
+import static org.dataconservancy.pass.authz.Authorization.MODE_WRITE;
+import static org.dataconservancy.pass.client.util.ConfigUtil.getSystemProperty;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.dataconservancy.pass.authz.AclReader;
+import org.dataconservancy.pass.authz.Authorization;
+import org.dataconservancy.pass.authz.SharedClients;
+import org.dataconservancy.pass.client.fedora.FedoraConfig;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lists which roles have access to which resources, according to the ACLs in the repository.
+ * <p>
+ * Writes a CSV report with the columns <code>role,resource,modes,acl</code>, where modes is some of <code>r</code>
+ * (read), <code>w</code> (write) and <code>a</code> (append). There is one row for each role and resource in each
+ * ACL. Every ACL in the <code>acl.base</code> container is read, each with one streamed request.
+ * </p>
+ * <p>
+ * Shared ACLs grant access to whatever resources link to them, which can only be found by visiting those resources.
+ * If {@value #PROP_ROOTS} is set to a comma-separated list of containers, they and everything beneath them are
+ * walked first, with a single request per resource, and shared ACLs are reported against the resources found to
+ * link to them.
+ * </p>
+ * <p>
+ * Requests block, so work is done on a fixed pool of {@value #PROP_CONCURRENCY} threads (default 8), which bounds the
+ * number of requests to the repository in flight. Throughput, in resources per second, is logged as it goes and at
+ * the end.
+ * </p>
+ */
+public class AclInventory {
+
+    static final Logger LOG = LoggerFactory.getLogger(AclInventory.class);
+
+    public static final String PROP_CONCURRENCY = "inventory.concurrency";
+
+    public static final String PROP_ROOTS = "inventory.roots";
+
+    static final String HEADER = "role,resource,modes,acl\n";
+
+    static final int PROGRESS_INTERVAL = 1000;
+
+    private final AclReader reader;
+
+    private final URI aclContainer;
+
+    private final Collection<URI> roots;
+
+    private final int concurrency;
+
+    /**
+     * @param reader Reads ACLs from the repository.
+     * @param aclContainer Container of ACLs.
+     * @param roots Containers to walk looking for links to shared ACLs.
+     * @param concurrency Maximum number of concurrent requests.
+     */
+    public AclInventory(AclReader reader, URI aclContainer, Collection<URI> roots, int concurrency) {
+        this.reader = reader;
+        this.aclContainer = aclContainer;
+        this.roots = roots;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Write a report to the file given as the only argument.
+     *
+     * @param args Command line arguments.
+     * @throws IOException if the report could not be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java -jar pass-authz-tools-exe.jar <report.csv>");
+            System.exit(1);
+        }
+
+        final URI aclContainer = URI.create(FedoraConfig.getBaseUrl() + getSystemProperty("acl.base", "acls"));
+        final Collection<URI> roots = Arrays.stream(getSystemProperty(PROP_ROOTS, "").split(","))
+                .map(String::trim)
+                .filter(root -> !root.isEmpty())
+                .map(URI::create)
+                .collect(toList());
+        final int concurrency = Integer.valueOf(getSystemProperty(PROP_CONCURRENCY, "8"));
+
+        try (Writer out = Files.newBufferedWriter(Paths.get(args[0]), UTF_8)) {
+            new AclInventory(new AclReader(SharedClients.fcrepoClient()), aclContainer, roots, concurrency).write(out);
+        }
+    }
+
+    /**
+     * Write the report.
+     *
+     * @param out Destination of the report.
+     * @return Summary of what was found.
+     * @throws IOException if the report could not be written.
+     */
+    public Summary write(Writer out) throws IOException {
+        final Crawl crawl = new Crawl(out);
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+
+        out.write(HEADER);
+        try {
+            final Work walk = new Work(executor);
+            roots.forEach(root -> walk.submit(() -> crawl.walk(root, walk)));
+            walk.await();
+            LOG.info("Found {} resources linked to ACLs", crawl.links.values().stream().mapToInt(Set::size).sum());
+
+            final Work read = new Work(executor);
+            reader.children(aclContainer).forEach(acl -> read.submit(() -> crawl.read(acl)));
+            read.await();
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            executor.shutdownNow();
+        }
+        out.flush();
+
+        final Summary summary = crawl.summary();
+        LOG.info("Inventory complete: {} ACLs, {} resources, {} rows in {} ms ({} resources/s)", summary.acls,
+                summary.resources, summary.rows, summary.millis, summary.resourcesPerSecond());
+        return summary;
+    }
+
+    /**
+     * Counts of what an inventory found.
+     */
+    public static class Summary {
+
+        final long acls;
+
+        final long resources;
+
+        final long rows;
+
+        final long millis;
+
+        Summary(long acls, long resources, long rows, long millis) {
+            this.acls = acls;
+            this.resources = resources;
+            this.rows = rows;
+            this.millis = millis;
+        }
+
+        /**
+         * @return Number of ACLs read.
+         */
+        public long getAcls() {
+            return acls;
+        }
+
+        /**
+         * @return Number of ACLs and other resources read.
+         */
+        public long getResources() {
+            return resources;
+        }
+
+        /**
+         * @return Number of rows in the report.
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * @return Elapsed time.
+         */
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * @return Resources read per second.
+         */
+        public long resourcesPerSecond() {
+            return millis > 0 ? resources * 1000 / millis : resources;
+        }
+    }
+
+    /* State of one run */
+    private class Crawl {
+
+        final Writer out;
+
+        final long start = System.currentTimeMillis();
+
+        /* ACL -> resources linking to it */
+        final Map<URI, Set<URI>> links = new ConcurrentHashMap<>();
+
+        final LongAdder acls = new LongAdder();
+
+        final LongAdder resources = new LongAdder();
+
+        final LongAdder rows = new LongAdder();
+
+        Crawl(Writer out) {
+            this.out = out;
+        }
+
+        /* Visit a resource, recording its link to an ACL, then walk each of its children */
+        void walk(URI resource, Work work) {
+            if (resource.equals(aclContainer)) {
+                return;
+            }
+
+            final AclReader.Node node;
+            try {
+                node = reader.node(resource);
+            } catch (final RuntimeException e) {
+                // e.g. binaries, or resources deleted since their parent was read
+                LOG.debug("Skipping <{}>", resource, e);
+                return;
+            }
+            if (node.acl != null) {
+                links.computeIfAbsent(node.acl, a -> ConcurrentHashMap.newKeySet()).add(resource);
+            }
+            visited();
+
+            node.children.forEach(child -> work.submit(() -> walk(child, work)));
+        }
+
+        /* Read an ACL and write its rows */
+        void read(URI acl) {
+            final Collection<Authorization> authorizations;
+            try {
+                authorizations = reader.read(acl);
+            } catch (final RuntimeException e) {
+                LOG.warn("Could not read ACL <{}>", acl, e);
+                return;
+            }
+            acls.increment();
+            visited();
+
+            // role -> resource -> modes, so each role and resource appears once for this ACL
+            final Map<URI, Map<URI, Set<URI>>> grants = new TreeMap<>();
+            for (final Authorization auth : authorizations) {
+                final Set<URI> targets = new HashSet<>(auth.getAccessTo());
+                if (!auth.getAccessToClass().isEmpty()) {
+                    targets.addAll(links.getOrDefault(acl, emptySet()));
+                }
+
+                for (final URI role : auth.getAgents()) {
+                    for (final URI target : targets) {
+                        grants.computeIfAbsent(role, r -> new TreeMap<>())
+                                .computeIfAbsent(target, t -> new HashSet<>())
+                                .addAll(auth.getModes());
+                    }
+                }
+            }
+
+            final StringBuilder csv = new StringBuilder();
+            grants.forEach((role, targets) -> targets.forEach((target, modes) -> {
+                csv.append(csv(role)).append(',')
+                        .append(csv(target)).append(',')
+                        .append(modes(modes)).append(',')
+                        .append(csv(acl)).append('\n');
+                rows.increment();
+            }));
+
+            try {
+                synchronized (out) {
+                    out.write(csv.toString());
+                }
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void visited() {
+            resources.increment();
+            final long count = resources.sum();
+            if (count % PROGRESS_INTERVAL == 0) {
+                final long elapsed = System.currentTimeMillis() - start;
+                LOG.info("Read {} resources ({} resources/s)", count, elapsed > 0 ? count * 1000 / elapsed : count);
+            }
+        }
+
+        Summary summary() {
+            return new Summary(acls.sum(), resources.sum(), rows.sum(), System.currentTimeMillis() - start);
+        }
+    }
+
+    /* Tasks on an executor, which may submit further tasks, that can be waited for together */
+    private static class Work {
+
+        final ExecutorService executor;
+
+        /* Tasks submitted and not yet finished, plus one until waited for */
+        final AtomicLong outstanding = new AtomicLong(1);
+
+        final CompletableFuture<Void> finished = new CompletableFuture<>();
+
+        Work(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        void submit(Runnable task) {
+            outstanding.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (final RuntimeException e) {
+                    finished.completeExceptionally(e);
+                } finally {
+                    done();
+                }
+            });
+        }
+
+        /* Wait for every task, including those submitted by other tasks, rethrowing the first failure */
+        void await() {
+            done();
+            try {
+                finished.join();
+            } catch (final CompletionException e) {
+                throw (RuntimeException) e.getCause();
+            }
+        }
+
+        private void done() {
+            if (outstanding.decrementAndGet() == 0) {
+                finished.complete(null);
+            }
+        }
+    }
+
+    static String modes(Set<URI> modes) {
+        return (modes.contains(MODE_READ) ? "r" : "") +
+                (modes.contains(MODE_WRITE) ? "w" : "") +
+                (modes.contains(MODE_APPEND) ? "a" : "");
+    }
+
+    static String csv(URI value) {
+        final String text = value.toString();
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0) {
+            return text;
+        }
+        return '"' + text.replace("\"", "\"\"") + '"';
+    }
+}
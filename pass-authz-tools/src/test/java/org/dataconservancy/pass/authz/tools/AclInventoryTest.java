@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.pass.authz.tools;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.dataconservancy.pass.authz.Authorization.MODE_READ;
+import static org.dataconservancy.pass.authz.Authorization.MODE_WRITE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+import org.dataconservancy.pass.authz.AclReader;
+import org.dataconservancy.pass.authz.Authorization;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AclInventoryTest {
+
+    static final URI CONTAINER = URI.create("test:acls");
+
+    static final URI ACL = URI.create("test:acls/1");
+
+    static final URI SHARED_ACL = URI.create("test:acls/shared");
+
+    static final URI ROOT = URI.create("test:root");
+
+    static final URI RESOURCE = URI.create("test:root/1");
+
+    static final URI ROLE_1 = URI.create("test:role1");
+
+    static final URI ROLE_2 = URI.create("test:role,2");
+
+    @Mock
+    AclReader reader;
+
+    @Test
+    public void reportTest() throws Exception {
+        when(reader.node(ROOT)).thenReturn(new AclReader.Node(null, asList(RESOURCE, CONTAINER)));
+        when(reader.node(RESOURCE)).thenReturn(new AclReader.Node(SHARED_ACL, emptyList()));
+
+        when(reader.children(CONTAINER)).thenReturn(asList(ACL, SHARED_ACL));
+        when(reader.read(ACL)).thenReturn(asList(
+                auth(asList(RESOURCE), emptyList(), asList(ROLE_1, ROLE_2), asList(MODE_READ)),
+                auth(asList(RESOURCE), emptyList(), asList(ROLE_1), asList(MODE_WRITE))));
+        when(reader.read(SHARED_ACL)).thenReturn(asList(
+                auth(emptyList(), asList(URI.create("test:class")), asList(ROLE_2), asList(MODE_READ))));
+
+        final StringWriter out = new StringWriter();
+        final AclInventory.Summary summary = new AclInventory(reader, CONTAINER, asList(ROOT), 2).write(out);
+
+        final List<String> lines = asList(out.toString().split("\n"));
+        assertEquals(AclInventory.HEADER.trim(), lines.get(0));
+        assertEquals(4, lines.size());
+        assertTrue(lines.contains("test:role1,test:root/1,rw,test:acls/1"));
+        assertTrue(lines.contains("\"test:role,2\",test:root/1,r,test:acls/1"));
+        assertTrue(lines.contains("\"test:role,2\",test:root/1,r,test:acls/shared"));
+
+        assertEquals(2, summary.getAcls());
+        assertEquals(4, summary.getResources());
+        assertEquals(3, summary.getRows());
+    }
+
+    static Authorization auth(Collection<URI> accessTo, Collection<URI> accessToClass, Collection<URI> agents,
+            Collection<URI> modes) {
+        final Authorization auth = mock(Authorization.class);
+        when(auth.getAccessTo()).thenReturn(new HashSet<>(accessTo));
+        when(auth.getAccessToClass()).thenReturn(new HashSet<>(accessToClass));
+        when(auth.getAgents()).thenReturn(new HashSet<>(agents));
+        when(auth.getModes()).thenReturn(new HashSet<>(modes));
+        return auth;
+    }
+}
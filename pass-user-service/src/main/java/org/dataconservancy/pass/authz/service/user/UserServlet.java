@@ -16,10 +16,22 @@
 
 package org.dataconservancy.pass.authz.service.user;
 
+import static java.util.Arrays.asList;
+import static org.dataconservancy.pass.authz.Digests.sha256Hex;
+import static org.dataconservancy.pass.authz.ShibAttributes.shibAttribute;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.DISPLAY_NAME_HEADER;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.EMAIL_HEADER;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.EMPLOYEE_ID;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.EPPN_HEADER;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.SCOPED_AFFILIATION_HEADER;
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.UNSCOPED_AFFILIATION_HEADER;
+
 import java.io.IOException;
 import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.List;
 
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -27,10 +39,13 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.dataconservancy.pass.authz.AuthUser;
 import org.dataconservancy.pass.authz.AuthUserProvider;
+import org.dataconservancy.pass.authz.ExpiringLRUCache;
 import org.dataconservancy.pass.authz.LogUtil;
+import org.dataconservancy.pass.authz.SharedClients;
+import org.dataconservancy.pass.authz.SharedProviders;
+import org.dataconservancy.pass.authz.ShibAttributes;
 import org.dataconservancy.pass.authz.ShibAuthUserProvider;
 import org.dataconservancy.pass.client.PassClient;
-import org.dataconservancy.pass.client.PassClientFactory;
 import org.dataconservancy.pass.model.User;
 
 import org.slf4j.Logger;
@@ -42,6 +57,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 /**
  * This class gets an {@link AuthUser} object from the {@link ShibAuthUserProvider} and creates {@link User} to be
  * stored in the back end storage for PASS.
+ * <p>
+ * Responses carry a strong ETag, and are cached by the Shibboleth attributes, host and protocol of the request that
+ * produced them, in the <code>whoami</code> {@link ExpiringLRUCache} (by default 1000 responses for 60 seconds). A
+ * request with the same attributes, host and protocol is answered from the cache without looking up the user, and
+ * with a 304 if its <code>If-None-Match</code> matches. Changes made to a user in the repository by anything else are
+ * seen once the cached response expires.
+ * </p>
  *
  * @author apb@jhu.edu
  * @author jrm@jhu.edu
@@ -51,11 +73,23 @@ public class UserServlet extends HttpServlet {
 
     static final Logger LOG = LoggerFactory.getLogger(UserServlet.class);
 
+    static final String ETAG = "ETag";
+
+    static final String IF_NONE_MATCH = "If-None-Match";
+
+    /* Shibboleth attributes the user, their eligibility, and their roles are derived from */
+    static final List<String> SHIB_ATTRIBUTES = asList(EPPN_HEADER, EMPLOYEE_ID, DISPLAY_NAME_HEADER, EMAIL_HEADER,
+            SCOPED_AFFILIATION_HEADER, UNSCOPED_AFFILIATION_HEADER);
+
     final ObjectMapper mapper = new ObjectMapper().setSerializationInclusion(Include.NON_NULL);
 
-    PassClient fedoraClient = PassClientFactory.getPassClient();
+    PassClient fedoraClient = SharedClients.passClient();
+
+    AuthUserProvider provider = SharedProviders.userProvider();
 
-    AuthUserProvider provider = new ShibAuthUserProvider(fedoraClient);
+    ExpiringLRUCache<String, Whoami> responses = ExpiringLRUCache.named("whoami", 1000, Duration.ofSeconds(60));
+
+    final boolean useShibHeaders = ShibAttributes.useShibHeaders();
 
     static {
         LogUtil.adjustLogLevels();
@@ -75,6 +109,14 @@ public class UserServlet extends HttpServlet {
         response.setContentType("application/json");
         response.setCharacterEncoding("utf-8");
 
+        final String fingerprint = fingerprint(request);
+        final Whoami cached = fingerprint != null ? responses.get(fingerprint) : null;
+        if (cached != null) {
+            LOG.debug("Using cached response for {}", request.getAttribute(EPPN_HEADER));
+            send(cached, request, response);
+            return;
+        }
+
         final AuthUser shibUser = provider.getUser(request);
         URI id = shibUser.getId();
 
@@ -120,7 +162,7 @@ public class UserServlet extends HttpServlet {
                 fedoraClient.updateResource(user);
             }
 
-        } else {// no id, so we add new user to repository if eligible
+        } else {// no id, so we add new user to repository if eligible per the configured EligibilityPolicy
             if (shibUser.isFaculty()) {
                 LOG.info("Creating new record for new user {}", shibUser.getPrincipal());
                 user = new User();
@@ -129,11 +171,15 @@ public class UserServlet extends HttpServlet {
                 user.setInstitutionalId(shibUser.getInstitutionalId());
                 user.setDisplayName(shibUser.getName());
                 user.setEmail(shibUser.getEmail());
-                user.getRoles().add(User.Role.SUBMITTER);
+                if (shibUser.getUserRoles().isEmpty()) {
+                    user.getRoles().add(User.Role.SUBMITTER);
+                } else {
+                    user.getRoles().addAll(shibUser.getUserRoles());
+                }
                 id = fedoraClient.createResource(user);
                 user.setId(id);
             } else {
-                LOG.warn("{} is not faculty, go away!", shibUser.getPrincipal());
+                LOG.warn("{} is not eligible, go away!", shibUser.getPrincipal());
                 user = null;
             }
         }
@@ -146,16 +192,82 @@ public class UserServlet extends HttpServlet {
 
             rewriteUri(user, request);
 
-            try (Writer out = response.getWriter()) {
-                mapper.writerWithDefaultPrettyPrinter().writeValue(out, user);
-                response.setStatus(200);
+            final Whoami whoami = new Whoami(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(user));
+            if (fingerprint != null) {
+                responses.put(fingerprint, whoami);
             }
+            send(whoami, request, response);
         } else {
             LOG.info("{} not authorized", shibUser.getPrincipal());
             response.setStatus(401);
         }
     }
 
+    private static void send(Whoami whoami, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        response.setHeader(ETAG, whoami.etag);
+        response.setHeader("Cache-Control", "private, no-cache");
+
+        if (matches(request.getHeader(IF_NONE_MATCH), whoami.etag)) {
+            response.setStatus(304);
+            return;
+        }
+
+        try (Writer out = response.getWriter()) {
+            out.write(whoami.body);
+            response.setStatus(200);
+        }
+    }
+
+    /* If-None-Match uses weak comparison, so ignore any W/ prefix */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (final String candidate : ifNoneMatch.split(",")) {
+            final String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(etag) || tag.startsWith("W/") && tag.substring(2).equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Everything a response depends on, other than the repository; null if the request has no Shibboleth identity */
+    private String fingerprint(HttpServletRequest request) {
+        if (shibAttribute(request, EPPN_HEADER, useShibHeaders) == null && shibAttribute(request, EMPLOYEE_ID,
+                useShibHeaders) == null) {
+            return null;
+        }
+
+        final StringBuilder fingerprint = new StringBuilder();
+        for (final String name : SHIB_ATTRIBUTES) {
+            fingerprint.append(shibAttribute(request, name, useShibHeaders)).append('\n');
+        }
+        return fingerprint
+                .append(request.getHeader("host")).append('\n')
+                .append(request.getHeader("X-Forwarded-Proto")).append('\n')
+                .append(request.getRequestURL()).toString();
+    }
+
+    /* A serialized response, and its ETag */
+    static class Whoami {
+
+        final String body;
+
+        final String etag;
+
+        Whoami(String body) {
+            this.body = body;
+            this.etag = etag(body);
+        }
+
+        private static String etag(String body) {
+            return '"' + sha256Hex(body) + '"';
+        }
+    }
+
     private void rewriteUri(User user, HttpServletRequest request) {
 
         final Protocol proto = Protocol.of(request, user.getId());
@@ -16,11 +16,16 @@
 
 package org.dataconservancy.pass.authz.service.user;
 
+import static org.dataconservancy.pass.authz.ShibAuthUserProvider.EPPN_HEADER;
+import static org.dataconservancy.pass.authz.service.user.UserServlet.ETAG;
+import static org.dataconservancy.pass.authz.service.user.UserServlet.IF_NONE_MATCH;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -28,6 +33,7 @@ import static org.mockito.Mockito.when;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.URI;
+import java.time.Duration;
 import java.util.Arrays;
 
 import javax.servlet.http.HttpServletRequest;
@@ -35,6 +41,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.dataconservancy.pass.authz.AuthUser;
 import org.dataconservancy.pass.authz.AuthUserProvider;
+import org.dataconservancy.pass.authz.ExpiringLRUCache;
 import org.dataconservancy.pass.client.PassClient;
 import org.dataconservancy.pass.model.User;
 import org.dataconservancy.pass.model.User.Role;
@@ -99,6 +106,9 @@ public class UserServletTest {
         servlet = new UserServlet();
         servlet.provider = provider;
         servlet.fedoraClient = client;
+
+        // Not the shared named cache, so responses are not cached across tests
+        servlet.responses = new ExpiringLRUCache<>(1000, Duration.ofSeconds(60));
     }
 
     @Test
@@ -128,6 +138,29 @@ public class UserServletTest {
         assertEquals(Arrays.asList(Role.SUBMITTER), created.getRoles());
     }
 
+    @Test
+    public void lookupFailureTest() throws Exception {
+        final URI foundId = URI.create("http://example.org/moo!");
+        when(provider.getUser(any())).thenThrow(new RuntimeException("Error looking up user")).thenReturn(USER);
+
+        try {
+            servlet.doGet(request, response);
+            fail("Should have failed when the user could not be looked up");
+        } catch (final RuntimeException e) {
+            // expected
+        }
+
+        // Once lookups work again, the user that existed all along is found, rather than a duplicate created
+        USER.setId(foundId);
+        when(client.readResource(eq(foundId), eq(User.class))).thenReturn(existingUser(foundId));
+
+        servlet.doGet(request, response);
+
+        final User fromServlet = mapper.reader().treeToValue(mapper.readTree(output.toString()), User.class);
+        assertEquals(foundId, fromServlet.getId());
+        verify(client, never()).createResource(any());
+    }
+
     @Test
     public void updateExistingUserTest() throws Exception {
         final URI foundId = URI.create("http://example.org/moo!");
@@ -284,4 +317,72 @@ public class UserServletTest {
         verify(client, times(0)).updateResource(any());
     }
 
+
+    @Test
+    public void cachedResponseTest() throws Exception {
+        final URI foundId = URI.create("http://example.org/moo!");
+        USER.setId(foundId);
+        when(request.getAttribute(EPPN_HEADER)).thenReturn(USER.getPrincipal());
+        when(client.readResource(eq(foundId), eq(User.class))).thenReturn(existingUser(foundId));
+
+        final StringWriter second = new StringWriter();
+        when(response.getWriter()).thenReturn(new PrintWriter(output), new PrintWriter(second));
+
+        servlet.doGet(request, response);
+        servlet.doGet(request, response);
+
+        assertEquals(output.toString(), second.toString());
+        verify(provider, times(1)).getUser(any());
+        verify(client, times(1)).readResource(any(), any());
+        verify(response, times(2)).setStatus(200);
+    }
+
+    @Test
+    public void notModifiedTest() throws Exception {
+        final URI foundId = URI.create("http://example.org/moo!");
+        USER.setId(foundId);
+        when(request.getAttribute(EPPN_HEADER)).thenReturn(USER.getPrincipal());
+        when(client.readResource(eq(foundId), eq(User.class))).thenReturn(existingUser(foundId));
+
+        servlet.doGet(request, response);
+
+        final ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+        verify(response).setHeader(eq(ETAG), etag.capture());
+        assertTrue(etag.getValue().matches("\"[0-9a-f]{64}\""));
+
+        when(request.getHeader(IF_NONE_MATCH)).thenReturn("\"other\", " + etag.getValue());
+        servlet.doGet(request, response);
+
+        verify(response).setStatus(304);
+        verify(response, times(1)).getWriter();
+        verify(provider, times(1)).getUser(any());
+        verify(client, times(1)).readResource(any(), any());
+    }
+
+    @Test
+    public void attributeChangeNotCachedTest() throws Exception {
+        final URI foundId = URI.create("http://example.org/moo!");
+        USER.setId(foundId);
+        when(request.getAttribute(EPPN_HEADER)).thenReturn(USER.getPrincipal());
+        when(client.readResource(eq(foundId), eq(User.class))).thenReturn(existingUser(foundId));
+
+        servlet.doGet(request, response);
+
+        when(request.getAttribute(EPPN_HEADER)).thenReturn("bessie@pasture.com");
+        servlet.doGet(request, response);
+
+        verify(provider, times(2)).getUser(any());
+        verify(response, never()).setStatus(304);
+    }
+
+    private User existingUser(URI id) {
+        final User found = new User();
+        found.setId(id);
+        found.setUsername(USER.getPrincipal());
+        found.setDisplayName(USER.getName());
+        found.setEmail(USER.getEmail());
+        found.setInstitutionalId(USER.getInstitutionalId());
+        found.setLocalKey(USER.getEmployeeId());
+        return found;
+    }
 }